@@ -0,0 +1,38 @@
+package io.github.freehij.loader;
+
+import io.github.freehij.loader.util.AnnotationParser;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AnnotationParserBenchmark {
+    static final String HANDLERS = "io/github/freehij/loader/bench/CallHandlers";
+
+    ClassLoader loader = AnnotationParserBenchmark.class.getClassLoader();
+
+    @Benchmark
+    public AnnotationParser.ParsedClass parse() {
+        return AnnotationParser.parseClassForInjections(HANDLERS, loader);
+    }
+
+    /**
+     * Parsing plus building the injection points, which resolves every annotation value through the proxies.
+     */
+    @Benchmark
+    public Object parseAndRegister() {
+        AnnotationParser.ParsedClass parsed = AnnotationParser.parseClassForInjections(HANDLERS, loader);
+        Object last = null;
+        for (String target : parsed.editClassTarget) {
+            for (AnnotationParser.ParsedMethod method : parsed.methods) {
+                last = new Loader.InjectionPoint(method.inject, target, HANDLERS, method.name);
+            }
+        }
+        return last;
+    }
+}
@@ -0,0 +1,126 @@
+package io.github.freehij.loader;
+
+import io.github.freehij.loader.bench.CallSites;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-call cost of injected sites, against the same method body without an injection ({@link #baseline}).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InjectedCallBenchmark {
+    static final String TARGET = "io/github/freehij/loader/bench/CallTarget";
+
+    CallSites sites;
+    int a = -7, b = 3;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        Loader.injectionPoints.clear();
+        Loader.processInjectionClass("io/github/freehij/loader/bench/CallHandlers",
+                InjectedCallBenchmark.class.getClassLoader());
+        sites = (CallSites) defineTransformed(TARGET).getDeclaredConstructor().newInstance();
+    }
+
+    static Class<?> defineTransformed(String className) throws IOException {
+        ClassLoader parent = InjectedCallBenchmark.class.getClassLoader();
+        byte[] original;
+        try (InputStream is = parent.getResourceAsStream(className + ".class")) {
+            original = is.readAllBytes();
+        }
+        byte[] transformed = Loader.transformClass(className, original, null);
+        return new ClassLoader(parent) {
+            Class<?> define() {
+                return defineClass(className.replace('/', '.'), transformed, 0, transformed.length);
+            }
+        }.define();
+    }
+
+    @Benchmark
+    public int baseline() {
+        return sites.baseline(a, b);
+    }
+
+    @Benchmark
+    public int headNone() {
+        return sites.headNone(a, b);
+    }
+
+    @Benchmark
+    public int headFetch() {
+        return sites.headFetch(a, b);
+    }
+
+    @Benchmark
+    public int headFetchApply() {
+        return sites.headFetchApply(a, b);
+    }
+
+    @Benchmark
+    public int headOutlined() {
+        return sites.headOutlined(a, b);
+    }
+
+    @Benchmark
+    public int returnNone() {
+        return sites.returnNone(a, b);
+    }
+
+    @Benchmark
+    public int returnFetch() {
+        return sites.returnFetch(a, b);
+    }
+
+    @Benchmark
+    public int returnFetchApply() {
+        return sites.returnFetchApply(a, b);
+    }
+
+    @Benchmark
+    public int invokeNone() {
+        return sites.invokeNone(a, b);
+    }
+
+    @Benchmark
+    public int invokeFetch() {
+        return sites.invokeFetch(a, b);
+    }
+
+    @Benchmark
+    public int invokeFetchApply() {
+        return sites.invokeFetchApply(a, b);
+    }
+
+    @Benchmark
+    public int modifyLocals() {
+        return sites.modifyLocals(a, b);
+    }
+
+    @Benchmark
+    public int headSampled() {
+        return sites.headSampled(a, b);
+    }
+
+    @Benchmark
+    public int redirectInvoke() {
+        return sites.redirectInvoke(a, b);
+    }
+
+    @Benchmark
+    public int modifyConstant() {
+        return sites.modifyConstant(a, b);
+    }
+
+    @Benchmark
+    public int headInlined() {
+        return sites.headInlined(a, b);
+    }
+}
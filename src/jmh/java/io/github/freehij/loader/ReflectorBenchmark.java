@@ -0,0 +1,51 @@
+package io.github.freehij.loader;
+
+import io.github.freehij.loader.util.Reflector;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReflectorBenchmark {
+    public static class Subject {
+        int value = 42;
+
+        int twice(int x) {
+            return x * 2;
+        }
+    }
+
+    Subject subject;
+    Reflector reflector;
+
+    @Setup
+    public void setup() {
+        subject = new Subject();
+        reflector = new Reflector(Subject.class, subject);
+    }
+
+    @Benchmark
+    public int directField() {
+        return subject.value;
+    }
+
+    @Benchmark
+    public Object reflectorGetField() {
+        return reflector.getField("value").get();
+    }
+
+    @Benchmark
+    public int directInvoke() {
+        return subject.twice(21);
+    }
+
+    @Benchmark
+    public Object reflectorInvoke() {
+        return reflector.invoke("twice", "(I)I", 21).get();
+    }
+}
@@ -0,0 +1,209 @@
+package io.github.freehij.loader;
+
+import io.github.freehij.loader.bench.SyntheticClasses;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.IllegalClassFormatException;
+import java.lang.instrument.Instrumentation;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+/**
+ * Scale test for the whole pipeline: generates a game jar of flat target classes and a growing number of mod jars,
+ * then runs {@link Loader#premain} plus the loading of every target in a fresh JVM per mod count.
+ * <p>
+ * Usage: {@code ScaleHarness [--mods 10,50,200] [--targets 2000] [--methods 8] [--handlers 10]
+ * [--targetsPerMod 20] [--out build/scale]}.
+ * Each handler fires exactly once per call of the method it edits, so the run also checks that every injection
+ * landed and that the targets still return what they did before.
+ */
+public class ScaleHarness {
+    static final String GAME_PACKAGE = "scale/game/T";
+    static final LongAdder HITS = new LongAdder();
+
+    public static void hit() {
+        HITS.increment();
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) options.put(args[i].replaceFirst("^--", ""), args[i + 1]);
+        if (options.containsKey("child")) {
+            runChild(options);
+            return;
+        }
+
+        int targets = Integer.parseInt(options.getOrDefault("targets", "2000"));
+        int methods = Integer.parseInt(options.getOrDefault("methods", "8"));
+        int handlers = Integer.parseInt(options.getOrDefault("handlers", "10"));
+        int targetsPerMod = Math.min(targets, Integer.parseInt(options.getOrDefault("targetsPerMod", "20")));
+        Path out = Paths.get(options.getOrDefault("out", "build/scale")).toAbsolutePath();
+        Files.createDirectories(out);
+
+        Path game = out.resolve("game.jar");
+        try (JarOutputStream jar = new JarOutputStream(Files.newOutputStream(game))) {
+            for (int t = 0; t < targets; t++) {
+                write(jar, GAME_PACKAGE + t + ".class", SyntheticClasses.generateTarget(GAME_PACKAGE + t, methods));
+            }
+        }
+
+        System.out.printf("%d targets x %d methods, %d handlers and %d targets per mod%n",
+                targets, methods, handlers, targetsPerMod);
+        System.out.printf("%6s %8s %12s %10s %10s %12s %10s %s%n", "mods", "points", "premain ms", "heap KiB",
+                "classes", "transform ms", "us/class", "check");
+        for (String count : options.getOrDefault("mods", "10,50,200").split(",")) {
+            int modCount = Integer.parseInt(count.trim());
+            Path modsDir = out.resolve("mods-" + modCount);
+            writeMods(modsDir, modCount, targets, methods, handlers, targetsPerMod);
+
+            Path result = out.resolve("result-" + modCount + ".properties");
+            Path log = out.resolve("log-" + modCount + ".txt");
+            Process child = new ProcessBuilder(Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                    "-Dloader.mods=" + modsDir, "-cp", System.getProperty("java.class.path"),
+                    ScaleHarness.class.getName(), "--child", "true", "--game", game.toString(),
+                    "--methods", String.valueOf(methods), "--expectedHits",
+                    String.valueOf((long) modCount * handlers * targetsPerMod), "--result", result.toString())
+                    .redirectErrorStream(true).redirectOutput(log.toFile()).start();
+            if (child.waitFor() != 0 || !Files.exists(result)) {
+                System.out.printf("%6d run failed, see %s%n", modCount, log);
+                continue;
+            }
+            Properties props = new Properties();
+            try (InputStream is = Files.newInputStream(result)) {
+                props.load(is);
+            }
+            long classes = Long.parseLong(props.getProperty("classes"));
+            long transformNanos = Long.parseLong(props.getProperty("transformNanos"));
+            System.out.printf("%6d %8s %12.1f %10d %10d %12.1f %10.1f %s%n", modCount,
+                    props.getProperty("points"), Long.parseLong(props.getProperty("premainNanos")) / 1e6,
+                    Long.parseLong(props.getProperty("premainHeap")) / 1024, classes, transformNanos / 1e6,
+                    classes == 0 ? 0.0 : transformNanos / 1e3 / classes, props.getProperty("check"));
+        }
+    }
+
+    static void writeMods(Path modsDir, int modCount, int targets, int methods, int handlers, int targetsPerMod)
+            throws IOException {
+        Files.createDirectories(modsDir);
+        for (int i = 0; i < modCount; i++) {
+            String[] edited = new String[targetsPerMod];
+            for (int j = 0; j < targetsPerMod; j++) edited[j] = GAME_PACKAGE + (i * targetsPerMod + j) % targets;
+            String handlerClass = "scale/mod" + i + "/Handlers";
+            try (JarOutputStream jar = new JarOutputStream(Files.newOutputStream(modsDir.resolve("scale" + i + ".jar")))) {
+                String properties = "modid=scale" + i + "\nname=Scale " + i + "\nversion=1.0\ncreator=scale\n" +
+                        "injections=" + handlerClass + "\n";
+                write(jar, "mod.properties", properties.getBytes());
+                write(jar, handlerClass + ".class", SyntheticClasses.generateHandlers(handlerClass, edited, handlers,
+                        methods, ScaleHarness.class.getName() + ".hit"));
+            }
+        }
+    }
+
+    static void write(JarOutputStream jar, String name, byte[] data) throws IOException {
+        jar.putNextEntry(new JarEntry(name));
+        jar.write(data);
+        jar.closeEntry();
+    }
+
+    static void runChild(Map<String, String> options) throws Exception {
+        List<ClassFileTransformer> transformers = new ArrayList<>();
+        Instrumentation inst = (Instrumentation) Proxy.newProxyInstance(ScaleHarness.class.getClassLoader(),
+                new Class<?>[]{Instrumentation.class}, (proxy, method, args) -> {
+                    if (method.getName().equals("addTransformer")) transformers.add((ClassFileTransformer) args[0]);
+                    return method.getReturnType() == boolean.class ? false : null;
+                });
+
+        long heapBefore = usedHeap();
+        long start = System.nanoTime();
+        Loader.premain(null, inst);
+        long premainNanos = System.nanoTime() - start;
+        long premainHeap = usedHeap() - heapBefore;
+        int points = 0;
+        for (List<Loader.InjectionPoint> list : Loader.injectionPoints.values()) points += list.size();
+
+        List<URL> urls = new ArrayList<>();
+        urls.add(Paths.get(options.get("game")).toUri().toURL());
+        urls.addAll(Loader.modUrls);
+        TransformingLoader loader = new TransformingLoader(urls.toArray(new URL[0]), transformers);
+        List<Class<?>> loaded = new ArrayList<>();
+        for (int t = 0; loader.getResource(GAME_PACKAGE + t + ".class") != null; t++) {
+            loaded.add(Class.forName((GAME_PACKAGE + t).replace('/', '.'), true, loader));
+        }
+
+        int methods = Integer.parseInt(options.get("methods"));
+        List<String> failures = new ArrayList<>();
+        for (Class<?> target : loaded) {
+            Object instance = target.getConstructor().newInstance();
+            for (int m = 0; m < methods; m++) {
+                Method method = target.getMethod("m" + m, int.class, int.class);
+                int result = (int) method.invoke(instance, m, 7);
+                if (result != Math.max(m, 7) && failures.size() < 10) {
+                    failures.add(target.getName() + ".m" + m + " returned " + result);
+                }
+            }
+        }
+        long expectedHits = Long.parseLong(options.get("expectedHits"));
+        if (HITS.sum() != expectedHits) failures.add("handlers ran " + HITS.sum() + " times, expected " + expectedHits);
+
+        Properties props = new Properties();
+        props.setProperty("points", String.valueOf(points));
+        props.setProperty("premainNanos", String.valueOf(premainNanos));
+        props.setProperty("premainHeap", String.valueOf(premainHeap));
+        props.setProperty("classes", String.valueOf(loaded.size()));
+        props.setProperty("transformNanos", String.valueOf(loader.transformNanos));
+        props.setProperty("check", failures.isEmpty() ? "ok" : String.join("; ", failures));
+        try (OutputStream out = Files.newOutputStream(Paths.get(options.get("result")))) {
+            props.store(out, "Scale run");
+        }
+    }
+
+    static long usedHeap() {
+        System.gc();
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    static class TransformingLoader extends URLClassLoader {
+        final List<ClassFileTransformer> transformers;
+        long transformNanos;
+
+        TransformingLoader(URL[] urls, List<ClassFileTransformer> transformers) {
+            super(urls, ScaleHarness.class.getClassLoader());
+            this.transformers = transformers;
+        }
+
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            String internalName = name.replace('.', '/');
+            byte[] data;
+            try (InputStream is = getResourceAsStream(internalName + ".class")) {
+                if (is == null) throw new ClassNotFoundException(name);
+                data = is.readAllBytes();
+            } catch (IOException e) {
+                throw new ClassNotFoundException(name, e);
+            }
+            long start = System.nanoTime();
+            for (ClassFileTransformer transformer : transformers) {
+                try {
+                    byte[] transformed = transformer.transform(this, internalName, null, null, data);
+                    if (transformed != null) data = transformed;
+                } catch (IllegalClassFormatException e) {
+                    throw new ClassNotFoundException(name, e);
+                }
+            }
+            transformNanos += System.nanoTime() - start;
+            return defineClass(name, data, 0, data.length);
+        }
+    }
+}
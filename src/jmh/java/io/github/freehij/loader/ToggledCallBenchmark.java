@@ -0,0 +1,10 @@
+package io.github.freehij.loader;
+
+import org.openjdk.jmh.annotations.Fork;
+
+/**
+ * {@link InjectedCallBenchmark} with {@code -Dloader.toggles=true}, so every site also carries the toggle guard.
+ */
+@Fork(value = 1, jvmArgsAppend = "-Dloader.toggles=true")
+public class ToggledCallBenchmark extends InjectedCallBenchmark {
+}
@@ -0,0 +1,55 @@
+package io.github.freehij.loader;
+
+import io.github.freehij.loader.bench.SyntheticClasses;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransformBenchmark {
+    static final String TARGET = "io/github/freehij/loader/bench/SyntheticTarget";
+
+    /**
+     * 10 small methods for a typical mod target, 400 larger ones for something the size of a big game class.
+     */
+    @Param({"10:8", "400:40"})
+    public String shape;
+
+    /**
+     * classfile needs a JDK 24 to run the benchmark on, for example with {@code -jvm <jdk 24>/bin/java}.
+     */
+    @Param({"asm", "classfile"})
+    public String backend;
+
+    byte[] input;
+    TransformBackend transformBackend;
+
+    @Setup
+    public void setup() {
+        String[] parts = shape.split(":");
+        input = SyntheticClasses.generate(TARGET, Integer.parseInt(parts[0]), Integer.parseInt(parts[1]));
+        Loader.injectionPoints.clear();
+        Loader.processInjectionClass("io/github/freehij/loader/bench/TransformHandlers",
+                TransformBenchmark.class.getClassLoader());
+        transformBackend = TransformBackend.select(backend);
+        // Falling back to asm would report its numbers under the other name.
+        if (!transformBackend.name().equals(backend)) {
+            throw new IllegalStateException("The " + backend + " backend is not available on this JDK");
+        }
+    }
+
+    @Benchmark
+    public byte[] transform() {
+        return transformBackend.transform(TARGET, input, null);
+    }
+
+    @Benchmark
+    public byte[] transformWithReport() {
+        return Loader.transformClass(TARGET, input, null);
+    }
+}
@@ -0,0 +1,74 @@
+package io.github.freehij.loader.bench;
+
+import io.github.freehij.loader.annotation.AdvancedAt;
+import io.github.freehij.loader.annotation.EditClass;
+import io.github.freehij.loader.annotation.Inject;
+import io.github.freehij.loader.annotation.Local;
+import io.github.freehij.loader.constant.ArgMode;
+import io.github.freehij.loader.constant.At;
+import io.github.freehij.loader.constant.Shift;
+import io.github.freehij.loader.util.InjectionHelper;
+
+@SuppressWarnings("deprecation")
+@EditClass("io/github/freehij/loader/bench/CallTarget")
+public class CallHandlers {
+    public static int calls;
+
+    @Inject(method = "headNone", argMode = ArgMode.NONE)
+    public static void headNone(InjectionHelper helper) { }
+
+    @Inject(method = "headFetch")
+    public static void headFetch(InjectionHelper helper) { }
+
+    @Inject(method = "headFetchApply", argMode = ArgMode.FETCH_APPLY)
+    public static void headFetchApply(InjectionHelper helper) { }
+
+    @Inject(method = "headOutlined", outline = true)
+    public static void headOutlined(InjectionHelper helper) { }
+
+    @Inject(method = "returnNone", at = At.RETURN, argMode = ArgMode.NONE)
+    public static void returnNone(InjectionHelper helper) { }
+
+    @Inject(method = "returnFetch", at = At.RETURN)
+    public static void returnFetch(InjectionHelper helper) { }
+
+    @Inject(method = "returnFetchApply", at = At.RETURN, argMode = ArgMode.FETCH_APPLY)
+    public static void returnFetchApply(InjectionHelper helper) { }
+
+    @Inject(method = "invokeNone", at = At.NONE, argMode = ArgMode.NONE,
+            advancedAt = @AdvancedAt(at = AdvancedAt.At.INVOKE, optional = "java/lang/Math;abs"))
+    public static void invokeNone(InjectionHelper helper) { }
+
+    @Inject(method = "invokeFetch", at = At.NONE,
+            advancedAt = @AdvancedAt(at = AdvancedAt.At.INVOKE, optional = "java/lang/Math;abs"))
+    public static void invokeFetch(InjectionHelper helper) { }
+
+    @Inject(method = "invokeFetchApply", at = At.NONE, argMode = ArgMode.FETCH_APPLY,
+            advancedAt = @AdvancedAt(at = AdvancedAt.At.INVOKE, optional = "java/lang/Math;abs"))
+    public static void invokeFetchApply(InjectionHelper helper) { }
+
+    @Inject(method = "modifyLocals", at = At.NONE, argMode = ArgMode.NONE,
+            advancedAt = @AdvancedAt(at = AdvancedAt.At.ASSIGN_LOCAL, optional = "3", shift = Shift.AFTER),
+            locals = @Local(index = 3, type = "I"), modifyLocals = true)
+    public static void modifyLocals(InjectionHelper helper) { }
+
+    @Inject(method = "headSampled", sampleEvery = 16)
+    public static void headSampled(InjectionHelper helper) { }
+
+    @Inject(method = "redirectInvoke", at = At.NONE,
+            advancedAt = @AdvancedAt(at = AdvancedAt.At.REDIRECT_INVOKE, optional = "java/lang/Math;abs"))
+    public static int redirectInvoke(int value) {
+        return Math.abs(value);
+    }
+
+    @Inject(method = "modifyConstant", at = At.NONE,
+            advancedAt = @AdvancedAt(at = AdvancedAt.At.MODIFY_CONSTANT, optional = "7"))
+    public static int modifyConstant(int original) {
+        return original;
+    }
+
+    @Inject(method = "headInlined", inline = true)
+    public static void headInlined(InjectionHelper helper) {
+        if ((Integer) helper.getArgs()[0] < 0) calls++;
+    }
+}
@@ -0,0 +1,35 @@
+package io.github.freehij.loader.bench;
+
+public interface CallSites {
+    int baseline(int a, int b);
+
+    int headNone(int a, int b);
+
+    int headFetch(int a, int b);
+
+    int headFetchApply(int a, int b);
+
+    int headOutlined(int a, int b);
+
+    int returnNone(int a, int b);
+
+    int returnFetch(int a, int b);
+
+    int returnFetchApply(int a, int b);
+
+    int invokeNone(int a, int b);
+
+    int invokeFetch(int a, int b);
+
+    int invokeFetchApply(int a, int b);
+
+    int modifyLocals(int a, int b);
+
+    int headSampled(int a, int b);
+
+    int redirectInvoke(int a, int b);
+
+    int modifyConstant(int a, int b);
+
+    int headInlined(int a, int b);
+}
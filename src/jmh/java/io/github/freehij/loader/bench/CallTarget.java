@@ -0,0 +1,84 @@
+package io.github.freehij.loader.bench;
+
+public class CallTarget implements CallSites {
+    @Override
+    public int baseline(int a, int b) {
+        return Math.abs(a) + b;
+    }
+
+    @Override
+    public int headNone(int a, int b) {
+        return Math.abs(a) + b;
+    }
+
+    @Override
+    public int headFetch(int a, int b) {
+        return Math.abs(a) + b;
+    }
+
+    @Override
+    public int headFetchApply(int a, int b) {
+        return Math.abs(a) + b;
+    }
+
+    @Override
+    public int headOutlined(int a, int b) {
+        return Math.abs(a) + b;
+    }
+
+    @Override
+    public int returnNone(int a, int b) {
+        return Math.abs(a) + b;
+    }
+
+    @Override
+    public int returnFetch(int a, int b) {
+        return Math.abs(a) + b;
+    }
+
+    @Override
+    public int returnFetchApply(int a, int b) {
+        return Math.abs(a) + b;
+    }
+
+    @Override
+    public int invokeNone(int a, int b) {
+        return Math.abs(a) + b;
+    }
+
+    @Override
+    public int invokeFetch(int a, int b) {
+        return Math.abs(a) + b;
+    }
+
+    @Override
+    public int invokeFetchApply(int a, int b) {
+        return Math.abs(a) + b;
+    }
+
+    @Override
+    public int modifyLocals(int a, int b) {
+        int c = Math.abs(a);
+        return c + b;
+    }
+
+    @Override
+    public int headSampled(int a, int b) {
+        return Math.abs(a) + b;
+    }
+
+    @Override
+    public int redirectInvoke(int a, int b) {
+        return Math.abs(a) + b;
+    }
+
+    @Override
+    public int modifyConstant(int a, int b) {
+        return Math.abs(a) + b * 7;
+    }
+
+    @Override
+    public int headInlined(int a, int b) {
+        return Math.abs(a) + b;
+    }
+}
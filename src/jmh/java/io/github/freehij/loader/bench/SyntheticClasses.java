@@ -0,0 +1,177 @@
+package io.github.freehij.loader.bench;
+
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+public class SyntheticClasses {
+    /**
+     * Generates a class with {@code methods} instance methods {@code int m<i>(int, int)}, each a small loop around
+     * {@code Math.max} followed by {@code statements} arithmetic statements.
+     */
+    public static byte[] generate(String name, int methods, int statements) {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
+        cw.visit(Opcodes.V17, Opcodes.ACC_PUBLIC, name, null, "java/lang/Object", null);
+
+        MethodVisitor init = cw.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+        init.visitCode();
+        init.visitVarInsn(Opcodes.ALOAD, 0);
+        init.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        init.visitInsn(Opcodes.RETURN);
+        init.visitMaxs(0, 0);
+        init.visitEnd();
+
+        for (int i = 0; i < methods; i++) {
+            MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "m" + i, "(II)I", null, null);
+            mv.visitCode();
+            Label loop = new Label();
+            Label end = new Label();
+            mv.visitInsn(Opcodes.ICONST_0);
+            mv.visitVarInsn(Opcodes.ISTORE, 3);
+            mv.visitLabel(loop);
+            mv.visitVarInsn(Opcodes.ILOAD, 3);
+            mv.visitVarInsn(Opcodes.ILOAD, 1);
+            mv.visitJumpInsn(Opcodes.IF_ICMPGE, end);
+            mv.visitVarInsn(Opcodes.ILOAD, 2);
+            mv.visitVarInsn(Opcodes.ILOAD, 3);
+            mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Math", "max", "(II)I", false);
+            mv.visitVarInsn(Opcodes.ISTORE, 2);
+            mv.visitIincInsn(3, 1);
+            mv.visitJumpInsn(Opcodes.GOTO, loop);
+            mv.visitLabel(end);
+            for (int j = 0; j < statements; j++) {
+                mv.visitVarInsn(Opcodes.ILOAD, 2);
+                mv.visitIntInsn(Opcodes.BIPUSH, j % 100);
+                mv.visitInsn(j % 2 == 0 ? Opcodes.IADD : Opcodes.IXOR);
+                mv.visitVarInsn(Opcodes.ISTORE, 2);
+            }
+            mv.visitVarInsn(Opcodes.ILOAD, 2);
+            mv.visitInsn(Opcodes.IRETURN);
+            mv.visitMaxs(0, 0);
+            mv.visitEnd();
+        }
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    /**
+     * Generates a class with {@code methods} straight-line methods {@code int m<i>(int, int)} returning
+     * {@code Math.max(a, b)}. Every instruction runs exactly once per call, so any {@link InjectionKind} with
+     * ordinal 0 fires exactly once:
+     * <pre>
+     * int c = Math.max(a, b);
+     * this.counter = this.counter + c;
+     * return c;
+     * </pre>
+     */
+    public static byte[] generateTarget(String name, int methods) {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
+        cw.visit(Opcodes.V17, Opcodes.ACC_PUBLIC, name, null, "java/lang/Object", null);
+        cw.visitField(Opcodes.ACC_PUBLIC, "counter", "I", null, null).visitEnd();
+
+        MethodVisitor init = cw.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+        init.visitCode();
+        init.visitVarInsn(Opcodes.ALOAD, 0);
+        init.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        init.visitInsn(Opcodes.RETURN);
+        init.visitMaxs(0, 0);
+        init.visitEnd();
+
+        for (int i = 0; i < methods; i++) {
+            MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "m" + i, "(II)I", null, null);
+            mv.visitCode();
+            mv.visitVarInsn(Opcodes.ILOAD, 1);
+            mv.visitVarInsn(Opcodes.ILOAD, 2);
+            mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Math", "max", "(II)I", false);
+            mv.visitVarInsn(Opcodes.ISTORE, 3);
+            mv.visitVarInsn(Opcodes.ALOAD, 0);
+            mv.visitInsn(Opcodes.DUP);
+            mv.visitFieldInsn(Opcodes.GETFIELD, name, "counter", "I");
+            mv.visitVarInsn(Opcodes.ILOAD, 3);
+            mv.visitInsn(Opcodes.IADD);
+            mv.visitFieldInsn(Opcodes.PUTFIELD, name, "counter", "I");
+            mv.visitVarInsn(Opcodes.ILOAD, 3);
+            mv.visitInsn(Opcodes.IRETURN);
+            mv.visitMaxs(0, 0);
+            mv.visitEnd();
+        }
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    public enum InjectionKind {
+        HEAD(null, null),
+        RETURN(null, null),
+        INVOKE_BEFORE("INVOKE", "BEFORE"),
+        INVOKE_AFTER("INVOKE", "AFTER"),
+        ASSIGN_LOCAL_BEFORE("ASSIGN_LOCAL", "BEFORE"),
+        ASSIGN_LOCAL_AFTER("ASSIGN_LOCAL", "AFTER"),
+        FETCH_LOCAL_BEFORE("FETCH_LOCAL", "BEFORE"),
+        FETCH_LOCAL_AFTER("FETCH_LOCAL", "AFTER"),
+        ASSIGN_FIELD_BEFORE("ASSIGN_FIELD", "BEFORE"),
+        ASSIGN_FIELD_AFTER("ASSIGN_FIELD", "AFTER"),
+        FETCH_FIELD_BEFORE("FETCH_FIELD", "BEFORE"),
+        FETCH_FIELD_AFTER("FETCH_FIELD", "AFTER");
+
+        final String advancedAt, shift;
+
+        InjectionKind(String advancedAt, String shift) {
+            this.advancedAt = advancedAt;
+            this.shift = shift;
+        }
+    }
+
+    /**
+     * Generates an {@code @EditClass} handler class. Handler {@code h<k>} injects into method {@code m<k % methods>}
+     * with the k-th {@link InjectionKind} and cycles through the arg modes; its body calls {@code hitCounter}, a
+     * static {@code ()V} method given as {@code owner.name}.
+     */
+    public static byte[] generateHandlers(String name, String[] targets, int handlers, int methods,
+                                          String hitCounter) {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(Opcodes.V17, Opcodes.ACC_PUBLIC, name, null, "java/lang/Object", null);
+        AnnotationVisitor editClass = cw.visitAnnotation("Lio/github/freehij/loader/annotation/EditClass;", true);
+        AnnotationVisitor values = editClass.visitArray("value");
+        for (String target : targets) values.visit(null, target);
+        values.visitEnd();
+        editClass.visitEnd();
+
+        String[] argModes = {"NONE", "FETCH", "FETCH_APPLY"};
+        InjectionKind[] kinds = InjectionKind.values();
+        int split = hitCounter.lastIndexOf('.');
+        for (int k = 0; k < handlers; k++) {
+            MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "h" + k,
+                    "(Lio/github/freehij/loader/util/InjectionHelper;)V", null, null);
+            AnnotationVisitor inject = mv.visitAnnotation("Lio/github/freehij/loader/annotation/Inject;", true);
+            AnnotationVisitor method = inject.visitArray("method");
+            method.visit(null, "m" + k % methods);
+            method.visitEnd();
+            inject.visitEnum("argMode", "Lio/github/freehij/loader/constant/ArgMode;", argModes[k % argModes.length]);
+            InjectionKind kind = kinds[k % kinds.length];
+            if (kind == InjectionKind.RETURN) {
+                inject.visitEnum("at", "Lio/github/freehij/loader/constant/At;", "RETURN");
+            } else if (kind.advancedAt != null) {
+                inject.visitEnum("at", "Lio/github/freehij/loader/constant/At;", "NONE");
+                AnnotationVisitor array = inject.visitArray("advancedAt");
+                AnnotationVisitor advanced = array.visitAnnotation(null,
+                        "Lio/github/freehij/loader/annotation/AdvancedAt;");
+                advanced.visitEnum("at", "Lio/github/freehij/loader/annotation/AdvancedAt$At;", kind.advancedAt);
+                advanced.visit("ordinal", 0);
+                advanced.visitEnum("shift", "Lio/github/freehij/loader/constant/Shift;", kind.shift);
+                advanced.visitEnd();
+                array.visitEnd();
+            }
+            inject.visitEnd();
+            mv.visitCode();
+            mv.visitMethodInsn(Opcodes.INVOKESTATIC, hitCounter.substring(0, split).replace('.', '/'),
+                    hitCounter.substring(split + 1), "()V", false);
+            mv.visitInsn(Opcodes.RETURN);
+            mv.visitMaxs(0, 0);
+            mv.visitEnd();
+        }
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+}
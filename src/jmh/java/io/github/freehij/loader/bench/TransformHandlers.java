@@ -0,0 +1,22 @@
+package io.github.freehij.loader.bench;
+
+import io.github.freehij.loader.annotation.AdvancedAt;
+import io.github.freehij.loader.annotation.EditClass;
+import io.github.freehij.loader.annotation.Inject;
+import io.github.freehij.loader.constant.ArgMode;
+import io.github.freehij.loader.constant.At;
+import io.github.freehij.loader.util.InjectionHelper;
+
+@SuppressWarnings("deprecation")
+@EditClass("io/github/freehij/loader/bench/SyntheticTarget")
+public class TransformHandlers {
+    @Inject(method = {"m0", "m1"})
+    public static void head(InjectionHelper helper) { }
+
+    @Inject(method = "m2", at = At.RETURN, argMode = ArgMode.FETCH_APPLY)
+    public static void tail(InjectionHelper helper) { }
+
+    @Inject(method = "m3", at = At.NONE,
+            advancedAt = @AdvancedAt(at = AdvancedAt.At.INVOKE, optional = "java/lang/Math;max"))
+    public static void invoke(InjectionHelper helper) { }
+}
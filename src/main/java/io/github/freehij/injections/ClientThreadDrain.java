@@ -0,0 +1,20 @@
+package io.github.freehij.injections;
+
+import io.github.freehij.loader.annotation.EditClass;
+import io.github.freehij.loader.annotation.Inject;
+import io.github.freehij.loader.constant.ArgMode;
+import io.github.freehij.loader.constant.ThreadAffinity;
+import io.github.freehij.loader.util.AffinityDispatch;
+import io.github.freehij.loader.util.InjectionHelper;
+
+/**
+ * Runs handlers with {@code affinity = CLIENT} that were called from other threads, registered only when a mod
+ * uses them.
+ */
+@EditClass("net/minecraft/client/Minecraft")
+public class ClientThreadDrain {
+    @Inject(method = "tick", argMode = ArgMode.NONE, priority = 0)
+    public static void drain(InjectionHelper helper) {
+        AffinityDispatch.drain(ThreadAffinity.CLIENT);
+    }
+}
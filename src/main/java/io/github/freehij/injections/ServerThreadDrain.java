@@ -0,0 +1,20 @@
+package io.github.freehij.injections;
+
+import io.github.freehij.loader.annotation.EditClass;
+import io.github.freehij.loader.annotation.Inject;
+import io.github.freehij.loader.constant.ArgMode;
+import io.github.freehij.loader.constant.ThreadAffinity;
+import io.github.freehij.loader.util.AffinityDispatch;
+import io.github.freehij.loader.util.InjectionHelper;
+
+/**
+ * Runs handlers with {@code affinity = SERVER} that were called from other threads, registered only when a mod
+ * uses them.
+ */
+@EditClass("net/minecraft/server/MinecraftServer")
+public class ServerThreadDrain {
+    @Inject(method = "tickServer", argMode = ArgMode.NONE, priority = 0)
+    public static void drain(InjectionHelper helper) {
+        AffinityDispatch.drain(ThreadAffinity.SERVER);
+    }
+}
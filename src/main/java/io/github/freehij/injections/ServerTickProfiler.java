@@ -0,0 +1,113 @@
+package io.github.freehij.injections;
+
+import io.github.freehij.loader.annotation.EditClass;
+import io.github.freehij.loader.annotation.Inject;
+import io.github.freehij.loader.constant.ArgMode;
+import io.github.freehij.loader.constant.At;
+import io.github.freehij.loader.util.InjectionHelper;
+import io.github.freehij.loader.util.Logger;
+
+import java.util.Arrays;
+
+/**
+ * Measures every server tick and how much of it was spent in mod handlers, enabled with
+ * -Dloader.tickProfiler=true. Ticks slower than {@code loader.tickProfiler.slowTickMs} (50) are logged with the
+ * handlers that took the most time, tick time percentiles over the last 1200 ticks every
+ * {@code loader.tickProfiler.interval} seconds (60).
+ * <p>
+ * Handler time is collected by a probe the loader generates around every handler call while this is enabled, only
+ * calls on the tick thread in between the two injections below are counted.
+ */
+@SuppressWarnings("deprecation")
+@EditClass("net/minecraft/server/MinecraftServer")
+public class ServerTickProfiler {
+    public static final boolean ENABLED = Boolean.getBoolean("loader.tickProfiler");
+    static final long SLOW_TICK_NANOS = Long.getLong("loader.tickProfiler.slowTickMs", 50) * 1_000_000;
+    static final long INTERVAL_NANOS = Long.getLong("loader.tickProfiler.interval", 60) * 1_000_000_000;
+    static final int WINDOW = 1200;
+
+    static volatile Thread tickThread;
+    static long tickStart, lastReport;
+    static final long[] window = new long[WINDOW];
+    static int ticks;
+    // Per tick handler time and calls by injection id, touched lists the ids to clear for the next tick.
+    static long[] nanos = new long[64];
+    static int[] calls = new int[64];
+    static String[] names = new String[64];
+    static int[] touched = new int[64];
+    static int touchedCount;
+
+    @Inject(method = "tickServer", argMode = ArgMode.NONE, priority = 0)
+    public static void tickStart(InjectionHelper helper) {
+        tickThread = Thread.currentThread();
+        for (int i = 0; i < touchedCount; i++) {
+            nanos[touched[i]] = 0;
+            calls[touched[i]] = 0;
+        }
+        touchedCount = 0;
+        tickStart = System.nanoTime();
+    }
+
+    @Inject(method = "tickServer", at = At.RETURN, argMode = ArgMode.NONE, priority = 1000)
+    public static void tickEnd(InjectionHelper helper) {
+        if (tickThread != Thread.currentThread()) return;
+        tickThread = null;
+        long now = System.nanoTime();
+        long tick = now - tickStart;
+        window[ticks++ % WINDOW] = tick;
+        if (tick > SLOW_TICK_NANOS) logSlowTick(tick);
+        if (lastReport == 0) lastReport = now;
+        if (now - lastReport > INTERVAL_NANOS) {
+            lastReport = now;
+            long[] sorted = Arrays.copyOf(window, Math.min(ticks, WINDOW));
+            Arrays.sort(sorted);
+            Logger.info("Tick time over the last " + sorted.length + " ticks: p50 " + millis(sorted, 0.5) +
+                    " ms, p95 " + millis(sorted, 0.95) + " ms, p99 " + millis(sorted, 0.99) + " ms, max " +
+                    millis(sorted, 1) + " ms", "TickProfiler");
+        }
+    }
+
+    public static long enter() {
+        return tickThread == Thread.currentThread() ? System.nanoTime() : 0;
+    }
+
+    public static void exit(long start, int id, String name, InjectionHelper helper) {
+        if (start == 0 || tickThread != Thread.currentThread()) return;
+        long time = System.nanoTime() - start;
+        if (id >= nanos.length) {
+            int size = Math.max(id + 1, nanos.length * 2);
+            nanos = Arrays.copyOf(nanos, size);
+            calls = Arrays.copyOf(calls, size);
+            names = Arrays.copyOf(names, size);
+        }
+        if (calls[id] == 0) {
+            if (touchedCount == touched.length) touched = Arrays.copyOf(touched, touched.length * 2);
+            touched[touchedCount++] = id;
+            names[id] = name;
+        }
+        nanos[id] += time;
+        calls[id]++;
+    }
+
+    static void logSlowTick(long tick) {
+        Integer[] ids = new Integer[touchedCount];
+        long handlers = 0;
+        for (int i = 0; i < touchedCount; i++) {
+            ids[i] = touched[i];
+            handlers += nanos[touched[i]];
+        }
+        Arrays.sort(ids, (a, b) -> Long.compare(nanos[b], nanos[a]));
+        StringBuilder message = new StringBuilder("Slow tick: ").append(tick / 1_000_000).append(" ms, ")
+                .append(handlers / 1_000_000).append(" ms in mod handlers");
+        for (int i = 0; i < Math.min(5, ids.length); i++) {
+            message.append(i == 0 ? ": " : ", ").append(names[ids[i]]).append(' ')
+                    .append(String.format("%.2f", nanos[ids[i]] / 1e6)).append(" ms (")
+                    .append(calls[ids[i]]).append(calls[ids[i]] == 1 ? " call)" : " calls)");
+        }
+        Logger.warn(message.toString(), "TickProfiler");
+    }
+
+    static String millis(long[] sorted, double fraction) {
+        return String.format("%.1f", sorted[Math.max(0, (int) Math.ceil(sorted.length * fraction) - 1)] / 1e6);
+    }
+}
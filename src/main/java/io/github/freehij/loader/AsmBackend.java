@@ -0,0 +1,712 @@
+package io.github.freehij.loader;
+
+import io.github.freehij.loader.Loader.InjectionPoint;
+import io.github.freehij.loader.annotation.AdvancedAt;
+import io.github.freehij.loader.annotation.Local;
+import io.github.freehij.loader.constant.ArgMode;
+import io.github.freehij.loader.constant.At;
+import io.github.freehij.loader.constant.Shift;
+import io.github.freehij.loader.constant.ThreadAffinity;
+import io.github.freehij.loader.util.Logger;
+import org.objectweb.asm.*;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+@SuppressWarnings("deprecation")
+class AsmBackend implements TransformBackend {
+    static final boolean OUTLINE = Boolean.getBoolean("loader.outline");
+    // Not read from InjectionToggles, that would start its MBean registration in the agent's copy as well.
+    static final boolean TOGGLES = Boolean.getBoolean("loader.toggles");
+
+    @Override
+    public String name() {
+        return "asm";
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return true;
+    }
+
+    @Override
+    public byte[] transform(String className, byte[] buffer, ClassLoader frameLoader) {
+        ClassReader cr = new ClassReader(buffer);
+        ClassWriter cw = new ClassWriter(cr, ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS) {
+            @Override
+            protected ClassLoader getClassLoader() {
+                return frameLoader != null ? frameLoader : super.getClassLoader();
+            }
+
+            // Asking the index doesn't load the classes, which in a transformer could load half the game.
+            @Override
+            protected String getCommonSuperClass(String type1, String type2) {
+                GameIndex index = GameIndex.index;
+                String common = index == null ? null : index.commonSuperClass(type1, type2);
+                return common != null ? common : super.getCommonSuperClass(type1, type2);
+            }
+        };
+        cr.accept(new InjectionClassVisitor(cw, className), 0);
+        return cw.toByteArray();
+    }
+
+    static class InjectionClassVisitor extends ClassVisitor {
+        final String className;
+        final List<InjectionPoint> points;
+
+        Outliner outliner;
+        boolean indy;
+
+        InjectionClassVisitor(ClassVisitor cv, String className) {
+            super(Opcodes.ASM9, cv);
+            this.className = className;
+            points = Loader.injectionPoints.get(className);
+        }
+
+        @Override
+        public void visit(int version, int access, String name, String sig, String superName, String[] interfaces) {
+            // Linked handlers are called through invokedynamic, which needs a Java 7 class file.
+            if ((version & 0xFFFF) < Opcodes.V1_7 && points != null && points.stream().anyMatch(p -> p.linked)) {
+                version = Opcodes.V1_7;
+            }
+            super.visit(version, access, name, sig, superName, interfaces);
+            indy = (version & 0xFFFF) >= Opcodes.V1_7;
+            boolean isInterface = (access & Opcodes.ACC_INTERFACE) != 0;
+            // Private static interface methods need a Java 8 class file.
+            if (!isInterface || (version & 0xFFFF) >= Opcodes.V1_8) outliner = new Outliner(className, isInterface);
+        }
+
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String desc, String sig, String[] ex) {
+            MethodVisitor mv = super.visitMethod(access, name, desc, sig, ex);
+            if (points == null) return mv;
+            for (InjectionPoint point : points) {
+                if (point.methods.contains(name) && (point.descriptor.isEmpty() || point.descriptor.equals(desc))) {
+                    if (Logger.isDebug()) {
+                        Logger.debug("Transforming " + name + desc +
+                                ", handler: " + point.handlerClass + "." + point.handlerMethod, this);
+                    }
+                    point.satisfied = true;
+                    mv = new InjectionMethodVisitor(mv, access, desc, point, this.className,
+                            OUTLINE || point.inject.outline() ? outliner : null, indy);
+                }
+            }
+            return mv;
+        }
+
+        @Override
+        public void visitEnd() {
+            if (outliner != null) outliner.emit(cv);
+            for (InjectionPoint point : points) {
+                if (!point.satisfied) Loader.unsatisfied(point, className + " has no matching method");
+            }
+        }
+    }
+
+    static class InjectionMethodVisitor extends MethodVisitor {
+        final InjectionPoint injection;
+        final int methodAccess;
+        final String methodDesc, className;
+        final Outliner outliner;
+        final boolean indy;
+        boolean hasReturned, inInjection;
+        int localStoreCount, fieldStoreCount, invokeCount, localLoadCount, fieldLoadCount, constantCount;
+
+        InjectionMethodVisitor(MethodVisitor mv, int access, String desc, InjectionPoint injection, String className,
+                               Outliner outliner, boolean indy) {
+            super(Opcodes.ASM9, mv);
+            this.injection = injection;
+            methodAccess = access;
+            methodDesc = desc;
+            this.className = className;
+            this.outliner = outliner;
+            this.indy = indy;
+        }
+
+        @Override
+        public void visitCode() {
+            super.visitCode();
+            if (injection.at == At.HEAD) injectHelper();
+        }
+
+        @Override
+        public void visitInsn(int opcode) {
+            if (inInjection) {
+                super.visitInsn(opcode);
+                return;
+            }
+            if (opcode >= Opcodes.ICONST_M1 && opcode <= Opcodes.DCONST_1 && injection.advancedAt.length > 0) {
+                super.visitInsn(opcode);
+                modifyConstant(constantValue(opcode));
+            } else if (injection.at == At.RETURN && isReturn(opcode)) {
+                injectHelper();
+                super.visitInsn(opcode);
+                hasReturned = true;
+            } else {
+                super.visitInsn(opcode);
+                if (isReturn(opcode)) hasReturned = true;
+            }
+        }
+
+        @Override
+        public void visitIntInsn(int opcode, int operand) {
+            super.visitIntInsn(opcode, operand);
+            if (!inInjection && opcode != Opcodes.NEWARRAY && injection.advancedAt.length > 0) modifyConstant(operand);
+        }
+
+        @Override
+        public void visitLdcInsn(Object value) {
+            super.visitLdcInsn(value);
+            if (!inInjection && injection.advancedAt.length > 0 && constantType(value) != null) modifyConstant(value);
+        }
+
+        @Override
+        public void visitVarInsn(int opcode, int var) {
+            if (inInjection || injection.advancedAt.length == 0) {
+                super.visitVarInsn(opcode, var);
+                return;
+            }
+            boolean isStore = opcode >= Opcodes.ISTORE && opcode <= Opcodes.ASTORE;
+            boolean isLoad  = opcode >= Opcodes.ILOAD  && opcode <= Opcodes.ALOAD;
+            if (isStore) {
+                handleInjection(AdvancedAt.At.ASSIGN_LOCAL, localStoreCount,
+                        adv -> adv.optional().isBlank() || var == Integer.parseInt(adv.optional().trim()),
+                        () -> super.visitVarInsn(opcode, var));
+                localStoreCount++;
+            } else if (isLoad) {
+                handleInjection(AdvancedAt.At.FETCH_LOCAL, localLoadCount,
+                        adv -> adv.optional().isBlank() || var == Integer.parseInt(adv.optional().trim()),
+                        () -> super.visitVarInsn(opcode, var));
+                localLoadCount++;
+            } else {
+                super.visitVarInsn(opcode, var);
+            }
+        }
+
+        @Override
+        public void visitFieldInsn(int opcode, String owner, String name, String descriptor) {
+            if (inInjection || injection.advancedAt.length == 0) {
+                super.visitFieldInsn(opcode, owner, name, descriptor);
+                return;
+            }
+            boolean isPut = opcode == Opcodes.PUTFIELD || opcode == Opcodes.PUTSTATIC;
+            boolean isGet = opcode == Opcodes.GETFIELD || opcode == Opcodes.GETSTATIC;
+            if (isPut) {
+                handleInjection(AdvancedAt.At.ASSIGN_FIELD, fieldStoreCount,
+                        adv -> adv.optional().isBlank() || name.equals(adv.optional().trim()),
+                        () -> super.visitFieldInsn(opcode, owner, name, descriptor));
+                fieldStoreCount++;
+            } else if (isGet) {
+                handleInjection(AdvancedAt.At.FETCH_FIELD, fieldLoadCount,
+                        adv -> adv.optional().isBlank() || name.equals(adv.optional().trim()),
+                        () -> super.visitFieldInsn(opcode, owner, name, descriptor));
+                fieldLoadCount++;
+            } else {
+                super.visitFieldInsn(opcode, owner, name, descriptor);
+            }
+        }
+
+        @Override
+        public void visitMethodInsn(int opcode, String owner, String name, String descriptor, boolean isInterface) {
+            if (inInjection || injection.advancedAt.length == 0) {
+                super.visitMethodInsn(opcode, owner, name, descriptor, isInterface);
+                return;
+            }
+            if (opcode >= Opcodes.INVOKEVIRTUAL && opcode <= Opcodes.INVOKEDYNAMIC) {
+                AdvancedAt redirect = rewriteAt(AdvancedAt.At.REDIRECT_INVOKE, invokeCount,
+                        adv -> adv.optional().isBlank() || matchesMethod(adv.optional().trim(), owner, name,
+                                descriptor));
+                if (redirect != null && opcode == Opcodes.INVOKESPECIAL) {
+                    // A static handler can't make a super call, calling the method virtually would reach the override.
+                    if (!name.equals("<init>")) {
+                        Loader.unsatisfied(injection, className + " calls " + owner + "." + name +
+                                " with invokespecial, which can't be redirected");
+                    }
+                } else if (redirect != null) {
+                    String handlerDesc = opcode == Opcodes.INVOKESTATIC ? descriptor :
+                            "(" + Type.getObjectType(owner).getDescriptor() + descriptor.substring(1);
+                    rewrite(mv, injection, indy, handlerDesc,
+                            () -> mv.visitMethodInsn(opcode, owner, name, descriptor, isInterface));
+                    invokeCount++;
+                    return;
+                }
+                handleInjection(AdvancedAt.At.INVOKE, invokeCount,
+                        adv -> adv.optional().isBlank() || matchesMethod(adv.optional().trim(), owner, name,
+                                descriptor),
+                        () -> super.visitMethodInsn(opcode, owner, name, descriptor, isInterface));
+                invokeCount++;
+            } else {
+                super.visitMethodInsn(opcode, owner, name, descriptor, isInterface);
+            }
+        }
+
+        @Override
+        public void visitEnd() {
+            if (injection.at == At.TAIL && !hasReturned) injectHelper();
+            super.visitEnd();
+        }
+
+        @Override
+        public void visitMaxs(int maxStack, int maxLocals) {
+            super.visitMaxs(Math.max(maxStack, 10), Math.max(maxLocals, 101));
+        }
+
+        void handleInjection(AdvancedAt.At type, int currentCount, Predicate<AdvancedAt> extraMatcher,
+                             Runnable instruction) {
+            processInjections(type, currentCount, extraMatcher, true);
+            instruction.run();
+            processInjections(type, currentCount, extraMatcher, false);
+        }
+
+        void processInjections(AdvancedAt.At type, int currentCount, Predicate<AdvancedAt> extraMatcher,
+                               boolean before) {
+            Shift targetShift = before ? Shift.BEFORE : Shift.AFTER;
+            for (AdvancedAt adv : injection.advancedAt) {
+                if (adv.at() == type && adv.shift() == targetShift) {
+                    if ((adv.ordinal() == -1 || adv.ordinal() == currentCount) && extraMatcher.test(adv)) {
+                        injectHelper();
+                    }
+                }
+            }
+        }
+
+        AdvancedAt rewriteAt(AdvancedAt.At type, int currentCount, Predicate<AdvancedAt> extraMatcher) {
+            for (AdvancedAt adv : injection.advancedAt) {
+                if (adv.at() == type && (adv.ordinal() == -1 || adv.ordinal() == currentCount) &&
+                        extraMatcher.test(adv)) {
+                    return adv;
+                }
+            }
+            return null;
+        }
+
+        // Called with the constant already pushed.
+        void modifyConstant(Object value) {
+            AdvancedAt adv = rewriteAt(AdvancedAt.At.MODIFY_CONSTANT, constantCount++,
+                    a -> a.optional().isBlank() || a.optional().trim().equals(constantLiteral(value)));
+            if (adv == null) return;
+            String type = constantType(value);
+            rewrite(mv, injection, indy, "(" + type + ")" + type, () -> { });
+        }
+
+        boolean matchesMethod(String pattern, String owner, String name, String descriptor) {
+            String[] parts = pattern.split(";");
+            if (parts.length == 2) return owner.equals(parts[0]) && name.equals(parts[1]);
+            return (owner + ";" + name + descriptor).equals(pattern);
+        }
+
+        boolean isReturn(int opcode) {
+            return opcode >= Opcodes.IRETURN && opcode <= Opcodes.RETURN;
+        }
+
+        void injectHelper() {
+            if (inInjection) return;
+            inInjection = true;
+            generateHelperCall(this, methodAccess, methodDesc, injection, className, outliner, indy);
+            inInjection = false;
+        }
+    }
+
+    static void generateHelperCall(MethodVisitor mv, int access, String desc, InjectionPoint injection,
+                                   String className, Outliner outliner, boolean indy) {
+        boolean isStatic = (access & Opcodes.ACC_STATIC) != 0;
+        Type[] argTypes = Type.getArgumentTypes(desc);
+        boolean fetchArgs = argTypes.length > 0 &&
+                (injection.inject.argMode() == ArgMode.FETCH || injection.inject.argMode() == ArgMode.FETCH_APPLY);
+        int[] argSlots = new int[argTypes.length];
+        int localIndex = isStatic ? 0 : 1;
+        for (int i = 0; i < argTypes.length; i++) {
+            argSlots[i] = localIndex;
+            localIndex += argTypes[i].getSize();
+        }
+        Local[] locals = injection.inject.locals();
+        Type[] localTypes = new Type[locals.length];
+        int[] localSlots = new int[locals.length];
+        for (int i = 0; i < locals.length; i++) {
+            localTypes[i] = Type.getType(locals[i].type());
+            localSlots[i] = locals[i].index();
+        }
+
+        Label skip = new Label();
+        boolean guarded = false;
+        if (TOGGLES) {
+            toggleGuard(mv, injection, indy, skip);
+            guarded = true;
+        }
+        for (Probe probe : Probe.ACTIVE) guarded |= probe.guard(mv, injection, skip);
+        HandlerInliner.Body inline = injection.inline;
+        boolean helperFree = inline != null && !inline.needsHelper() &&
+                inline.maxArg() < (fetchArgs ? argTypes.length : 0) && inline.maxLocal() < locals.length;
+        for (Probe probe : Probe.ACTIVE) helperFree &= !probe.needsHelper(injection);
+        for (Probe probe : Probe.ACTIVE) probe.enter(mv, injection);
+        if (helperFree) {
+            HandlerInliner.emit(mv, inline, false, isStatic, argTypes, argSlots, localTypes, localSlots);
+            for (int i = Probe.ACTIVE.size() - 1; i >= 0; i--) Probe.ACTIVE.get(i).exit(mv, injection);
+            if (guarded) mv.visitLabel(skip);
+            return;
+        }
+        // Bridges can't be added on retransformation, so handlers that may be replaced are never outlined.
+        if (outliner != null && inline == null && !injection.async && injection.affinity == ThreadAffinity.ANY &&
+                !injection.replaceable) {
+            if (!isStatic) mv.visitVarInsn(Opcodes.ALOAD, 0);
+            if (fetchArgs) {
+                for (int i = 0; i < argTypes.length; i++) {
+                    mv.visitVarInsn(argTypes[i].getOpcode(Opcodes.ILOAD), argSlots[i]);
+                }
+            }
+            for (int i = 0; i < localTypes.length; i++) {
+                mv.visitVarInsn(localTypes[i].getOpcode(Opcodes.ILOAD), localSlots[i]);
+            }
+            outliner.call(mv, injection, !isStatic, fetchArgs ? argTypes : new Type[0], localTypes);
+            mv.visitVarInsn(Opcodes.ASTORE, 100);
+        } else {
+            newHelper(mv, !isStatic, className, fetchArgs ? argTypes : null, argSlots, localTypes, localSlots);
+            for (Probe probe : Probe.ACTIVE) probe.helperCreated(mv, injection);
+            mv.visitVarInsn(Opcodes.ASTORE, 100);
+            if (inline != null) {
+                HandlerInliner.emit(mv, inline, true, isStatic, argTypes, argSlots, localTypes, localSlots);
+            } else {
+                mv.visitVarInsn(Opcodes.ALOAD, 100);
+                if (injection.async) {
+                    submitAsync(mv, injection);
+                } else if (injection.affinity != ThreadAffinity.ANY) {
+                    invokeOnOwner(mv, injection);
+                } else {
+                    invokeHandler(mv, injection);
+                }
+            }
+        }
+        for (int i = Probe.ACTIVE.size() - 1; i >= 0; i--) Probe.ACTIVE.get(i).exit(mv, injection);
+        if (injection.async) {
+            // Nothing to write back and the handler can't cancel a call it sees later.
+            if (guarded) mv.visitLabel(skip);
+            return;
+        }
+        Label continueLabel = new Label();
+        if (inline == null && injection.affinity != ThreadAffinity.ANY) {
+            // A queued helper belongs to the owning thread now, which may be running the handler on it.
+            mv.visitVarInsn(Opcodes.ALOAD, 100);
+            mv.visitMethodInsn(Opcodes.INVOKESTATIC, "io/github/freehij/loader/util/AffinityDispatch", "wasQueued",
+                    "(Lio/github/freehij/loader/util/InjectionHelper;)Z", false);
+            mv.visitJumpInsn(Opcodes.IFNE, continueLabel);
+        }
+
+        if (argTypes.length > 0 && injection.inject.argMode() == ArgMode.FETCH_APPLY) {
+            mv.visitVarInsn(Opcodes.ALOAD, 100);
+            mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL,
+                    "io/github/freehij/loader/util/InjectionHelper",
+                    "getArgs",
+                    "()[Ljava/lang/Object;",
+                    false);
+            for (int i = 0; i < argTypes.length; i++) {
+                Type argType = argTypes[i];
+                mv.visitInsn(Opcodes.DUP);
+                mv.visitIntInsn(Opcodes.BIPUSH, i);
+                mv.visitInsn(Opcodes.AALOAD);
+                if (argType.getSort() <= Type.DOUBLE) {
+                    unbox(mv, argType);
+                } else {
+                    mv.visitTypeInsn(Opcodes.CHECKCAST, argType.getInternalName());
+                }
+                mv.visitVarInsn(argType.getOpcode(Opcodes.ISTORE), argSlots[i]);
+            }
+            mv.visitInsn(Opcodes.POP);
+        }
+
+        if (injection.inject.modifyLocals() && locals.length > 0) {
+            mv.visitVarInsn(Opcodes.ALOAD, 100);
+            mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL,
+                    "io/github/freehij/loader/util/InjectionHelper",
+                    "getLocals",
+                    "()[Ljava/lang/Object;",
+                    false);
+            for (int i = 0; i < locals.length; i++) {
+                Type localType = localTypes[i];
+                mv.visitInsn(Opcodes.DUP);
+                mv.visitIntInsn(Opcodes.BIPUSH, i);
+                mv.visitInsn(Opcodes.AALOAD);
+                if (localType.getSort() <= Type.DOUBLE) {
+                    unbox(mv, localType);
+                } else {
+                    mv.visitTypeInsn(Opcodes.CHECKCAST, localType.getInternalName());
+                }
+                mv.visitVarInsn(localType.getOpcode(Opcodes.ISTORE), localSlots[i]);
+            }
+            mv.visitInsn(Opcodes.POP);
+        }
+
+        mv.visitVarInsn(Opcodes.ALOAD, 100);
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL,
+                "io/github/freehij/loader/util/InjectionHelper", "isCancelled", "()Z", false);
+        mv.visitJumpInsn(Opcodes.IFEQ, continueLabel);
+
+        Type returnType = Type.getReturnType(desc);
+        if (returnType == Type.VOID_TYPE) {
+            mv.visitInsn(Opcodes.RETURN);
+        } else {
+            mv.visitVarInsn(Opcodes.ALOAD, 100);
+            mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL,
+                    "io/github/freehij/loader/util/InjectionHelper", "getReturnValue", "()Ljava/lang/Object;", false);
+            unbox(mv, returnType);
+            mv.visitInsn(returnType.getOpcode(Opcodes.IRETURN));
+        }
+
+        mv.visitLabel(continueLabel);
+        mv.visitFrame(Opcodes.F_SAME, 0, null, 0, null);
+        if (guarded) mv.visitLabel(skip);
+    }
+
+    static void newHelper(MethodVisitor mv, boolean hasSelf, String className, Type[] argTypes, int[] argSlots,
+                          Type[] localTypes, int[] localSlots) {
+        mv.visitTypeInsn(Opcodes.NEW, "io/github/freehij/loader/util/InjectionHelper");
+        mv.visitInsn(Opcodes.DUP);
+        if (hasSelf) {
+            mv.visitVarInsn(Opcodes.ALOAD, 0);
+        } else {
+            mv.visitInsn(Opcodes.ACONST_NULL);
+        }
+        mv.visitLdcInsn(Type.getObjectType(className));
+        if (argTypes != null) {
+            mv.visitIntInsn(Opcodes.BIPUSH, argTypes.length);
+            mv.visitTypeInsn(Opcodes.ANEWARRAY, "java/lang/Object");
+            for (int i = 0; i < argTypes.length; i++) {
+                mv.visitInsn(Opcodes.DUP);
+                mv.visitIntInsn(Opcodes.BIPUSH, i);
+                mv.visitVarInsn(argTypes[i].getOpcode(Opcodes.ILOAD), argSlots[i]);
+                boxElement(mv, argTypes[i]);
+                mv.visitInsn(Opcodes.AASTORE);
+            }
+        } else {
+            mv.visitInsn(Opcodes.ACONST_NULL);
+        }
+        if (localTypes.length > 0) {
+            mv.visitIntInsn(Opcodes.BIPUSH, localTypes.length);
+            mv.visitTypeInsn(Opcodes.ANEWARRAY, "java/lang/Object");
+            for (int i = 0; i < localTypes.length; i++) {
+                mv.visitInsn(Opcodes.DUP);
+                mv.visitIntInsn(Opcodes.BIPUSH, i);
+                mv.visitVarInsn(localTypes[i].getOpcode(Opcodes.ILOAD), localSlots[i]);
+                boxElement(mv, localTypes[i]);
+                mv.visitInsn(Opcodes.AASTORE);
+            }
+        } else {
+            mv.visitInsn(Opcodes.ACONST_NULL);
+        }
+        mv.visitMethodInsn(Opcodes.INVOKESPECIAL,
+                "io/github/freehij/loader/util/InjectionHelper",
+                "<init>",
+                "(Ljava/lang/Object;Ljava/lang/Class;[Ljava/lang/Object;[Ljava/lang/Object;)V",
+                false);
+    }
+
+    /**
+     * Calls the handler with the given descriptor in place of {@code original}, which still runs while the injection
+     * is switched off.
+     */
+    static void rewrite(MethodVisitor mv, InjectionPoint injection, boolean indy, String handlerDesc,
+                        Runnable original) {
+        if (!TOGGLES) {
+            callHandler(mv, injection, handlerDesc);
+            return;
+        }
+        Label disabled = new Label(), done = new Label();
+        toggleGuard(mv, injection, indy, disabled);
+        callHandler(mv, injection, handlerDesc);
+        mv.visitJumpInsn(Opcodes.GOTO, done);
+        mv.visitLabel(disabled);
+        original.run();
+        mv.visitLabel(done);
+    }
+
+    static Object constantValue(int opcode) {
+        if (opcode <= Opcodes.ICONST_5) return opcode - Opcodes.ICONST_0;
+        if (opcode <= Opcodes.LCONST_1) return (long) (opcode - Opcodes.LCONST_0);
+        if (opcode <= Opcodes.FCONST_2) return (float) (opcode - Opcodes.FCONST_0);
+        return (double) (opcode - Opcodes.DCONST_0);
+    }
+
+    // As the constant would be written in Java, suffixed for long and float, class constants as internal names.
+    static String constantLiteral(Object value) {
+        if (value instanceof Long) return value + "L";
+        if (value instanceof Float) return value + "F";
+        if (value instanceof Type type) return type.getSort() == Type.OBJECT ? type.getInternalName() : type.toString();
+        return String.valueOf(value);
+    }
+
+    static String constantType(Object value) {
+        if (value instanceof Integer) return "I";
+        if (value instanceof Long) return "J";
+        if (value instanceof Float) return "F";
+        if (value instanceof Double) return "D";
+        if (value instanceof String) return "Ljava/lang/String;";
+        if (value instanceof Type type && type.getSort() >= Type.ARRAY && type.getSort() <= Type.OBJECT) {
+            return "Ljava/lang/Class;";
+        }
+        return null;
+    }
+
+    static final Handle TOGGLE_BOOTSTRAP = new Handle(Opcodes.H_INVOKESTATIC,
+            "io/github/freehij/loader/util/InjectionToggles", "bootstrap",
+            "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;ILjava/lang/String;)" +
+                    "Ljava/lang/invoke/CallSite;", false);
+
+    static void toggleGuard(MethodVisitor mv, InjectionPoint injection, boolean indy, Label skip) {
+        if (indy) {
+            mv.visitInvokeDynamicInsn("enabled", "()Z", TOGGLE_BOOTSTRAP, injection.id, injection.toString());
+        } else {
+            mv.visitLdcInsn(injection.id);
+            mv.visitLdcInsn(injection.toString());
+            mv.visitMethodInsn(Opcodes.INVOKESTATIC, "io/github/freehij/loader/util/InjectionToggles", "isEnabled",
+                    "(ILjava/lang/String;)Z", false);
+        }
+        mv.visitJumpInsn(Opcodes.IFEQ, skip);
+    }
+
+    static void invokeHandler(MethodVisitor mv, InjectionPoint injection) {
+        callHandler(mv, injection, "(Lio/github/freehij/loader/util/InjectionHelper;)V");
+    }
+
+    static final Handle HANDLER_BOOTSTRAP = new Handle(Opcodes.H_INVOKESTATIC,
+            "io/github/freehij/loader/util/HandlerLinker", "bootstrap",
+            "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;Ljava/lang/String;" +
+                    "Ljava/lang/String;)Ljava/lang/invoke/CallSite;", false);
+
+    // Linked handlers live in a class loader of their own, the target can only reach them through the linker.
+    static void callHandler(MethodVisitor mv, InjectionPoint injection, String handlerDesc) {
+        if (injection.linked) {
+            mv.visitInvokeDynamicInsn(injection.handlerMethod, handlerDesc, HANDLER_BOOTSTRAP, injection.handlerClass,
+                    injection.handlerMethod);
+        } else {
+            mv.visitMethodInsn(Opcodes.INVOKESTATIC, injection.handlerClass, injection.handlerMethod, handlerDesc,
+                    false);
+        }
+    }
+
+    // Expects the helper on the stack, calls the handler right away on the owning thread and queues it otherwise.
+    static void invokeOnOwner(MethodVisitor mv, InjectionPoint injection) {
+        Label queue = new Label(), done = new Label();
+        int affinity = injection.affinity.ordinal();
+        mv.visitLdcInsn(affinity);
+        mv.visitMethodInsn(Opcodes.INVOKESTATIC, "io/github/freehij/loader/util/AffinityDispatch", "isOwner",
+                "(I)Z", false);
+        mv.visitJumpInsn(Opcodes.IFEQ, queue);
+        invokeHandler(mv, injection);
+        mv.visitJumpInsn(Opcodes.GOTO, done);
+        mv.visitLabel(queue);
+        mv.visitLdcInsn(injection.id);
+        mv.visitLdcInsn(injection.handlerClass);
+        mv.visitLdcInsn(injection.handlerMethod);
+        mv.visitLdcInsn(affinity);
+        mv.visitMethodInsn(Opcodes.INVOKESTATIC, "io/github/freehij/loader/util/AffinityDispatch", "submit",
+                "(Lio/github/freehij/loader/util/InjectionHelper;ILjava/lang/String;Ljava/lang/String;I)V", false);
+        mv.visitLabel(done);
+    }
+
+    // Expects the helper on the stack. The handler is looked up by name on the first call, so this works in class
+    // files too old for method handle constants.
+    static void submitAsync(MethodVisitor mv, InjectionPoint injection) {
+        mv.visitLdcInsn(injection.id);
+        mv.visitLdcInsn(injection.handlerClass);
+        mv.visitLdcInsn(injection.handlerMethod);
+        mv.visitLdcInsn(injection.inject.backpressure().ordinal());
+        mv.visitMethodInsn(Opcodes.INVOKESTATIC, "io/github/freehij/loader/util/AsyncDelivery", "submit",
+                "(Lio/github/freehij/loader/util/InjectionHelper;ILjava/lang/String;Ljava/lang/String;I)V", false);
+    }
+
+    /**
+     * Moves helper construction and the handler call into private synthetic methods of the target class, so the
+     * injection site only keeps the call, the write-back and the cancel check.
+     */
+    static class Outliner {
+        final String className;
+        final boolean isInterface;
+        final Map<String, String> names = new HashMap<>();
+        final List<Bridge> bridges = new ArrayList<>();
+
+        Outliner(String className, boolean isInterface) {
+            this.className = className;
+            this.isInterface = isInterface;
+        }
+
+        void call(MethodVisitor mv, InjectionPoint injection, boolean hasSelf, Type[] argTypes, Type[] localTypes) {
+            StringBuilder desc = new StringBuilder("(");
+            if (hasSelf) desc.append(Type.getObjectType(className).getDescriptor());
+            for (Type type : argTypes) desc.append(type.getDescriptor());
+            for (Type type : localTypes) desc.append(type.getDescriptor());
+            desc.append(")Lio/github/freehij/loader/util/InjectionHelper;");
+            String bridgeDesc = desc.toString();
+            String name = names.computeIfAbsent(injection + bridgeDesc, k -> {
+                String bridgeName = "loader$inject$" + bridges.size();
+                bridges.add(new Bridge(bridgeName, bridgeDesc, injection, hasSelf, argTypes, localTypes));
+                return bridgeName;
+            });
+            mv.visitMethodInsn(Opcodes.INVOKESTATIC, className, name, bridgeDesc, isInterface);
+        }
+
+        void emit(ClassVisitor cv) {
+            for (Bridge bridge : bridges) {
+                MethodVisitor mv = cv.visitMethod(Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC | Opcodes.ACC_SYNTHETIC,
+                        bridge.name, bridge.desc, null, null);
+                mv.visitCode();
+                int slot = bridge.hasSelf ? 1 : 0;
+                int[] argSlots = new int[bridge.argTypes.length];
+                for (int i = 0; i < argSlots.length; i++) {
+                    argSlots[i] = slot;
+                    slot += bridge.argTypes[i].getSize();
+                }
+                int[] localSlots = new int[bridge.localTypes.length];
+                for (int i = 0; i < localSlots.length; i++) {
+                    localSlots[i] = slot;
+                    slot += bridge.localTypes[i].getSize();
+                }
+                newHelper(mv, bridge.hasSelf, className, bridge.argTypes.length > 0 ? bridge.argTypes : null,
+                        argSlots, bridge.localTypes, localSlots);
+                for (Probe probe : Probe.ACTIVE) probe.helperCreated(mv, bridge.injection);
+                mv.visitInsn(Opcodes.DUP);
+                invokeHandler(mv, bridge.injection);
+                mv.visitInsn(Opcodes.ARETURN);
+                mv.visitMaxs(0, 0);
+                mv.visitEnd();
+            }
+        }
+
+        record Bridge(String name, String desc, InjectionPoint injection, boolean hasSelf, Type[] argTypes,
+                      Type[] localTypes) { }
+    }
+
+    static void boxElement(MethodVisitor mv, Type type) {
+        switch (type.getSort()) {
+            case Type.BOOLEAN: box(mv, "java/lang/Boolean", "(Z)Ljava/lang/Boolean;"); break;
+            case Type.BYTE: box(mv, "java/lang/Byte", "(B)Ljava/lang/Byte;"); break;
+            case Type.CHAR: box(mv, "java/lang/Character", "(C)Ljava/lang/Character;"); break;
+            case Type.SHORT: box(mv, "java/lang/Short", "(S)Ljava/lang/Short;"); break;
+            case Type.INT: box(mv, "java/lang/Integer", "(I)Ljava/lang/Integer;"); break;
+            case Type.FLOAT: box(mv, "java/lang/Float", "(F)Ljava/lang/Float;"); break;
+            case Type.LONG: box(mv, "java/lang/Long", "(J)Ljava/lang/Long;"); break;
+            case Type.DOUBLE: box(mv, "java/lang/Double", "(D)Ljava/lang/Double;"); break;
+        }
+    }
+
+    static void box(MethodVisitor mv, String owner, String descriptor) {
+        mv.visitMethodInsn(Opcodes.INVOKESTATIC, owner, "valueOf", descriptor, false);
+    }
+
+    static void unbox(MethodVisitor mv, Type type) {
+        int sort = type.getSort();
+        if (sort >= Type.BOOLEAN && sort <= Type.DOUBLE) {
+            String[] wrappers = {
+                    "java/lang/Boolean", "java/lang/Byte", "java/lang/Character",
+                    "java/lang/Short", "java/lang/Integer", "java/lang/Float",
+                    "java/lang/Long", "java/lang/Double"
+            };
+            String[] methods = {"booleanValue", "byteValue", "charValue", "shortValue",
+                    "intValue", "floatValue", "longValue", "doubleValue"};
+            String[] descs = {"()Z", "()B", "()C", "()S", "()I", "()F", "()J", "()D"};
+            String wrapper = wrappers[sort - 1];
+            mv.visitTypeInsn(Opcodes.CHECKCAST, wrapper);
+            mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, wrapper, methods[sort - 1], descs[sort - 1], false);
+        } else if (sort == Type.ARRAY || sort == Type.OBJECT) {
+            mv.visitTypeInsn(Opcodes.CHECKCAST, type.getInternalName());
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package io.github.freehij.loader;
+
+import io.github.freehij.loader.util.Logger;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Dynamic AppCDS support, enabled with {@code -Dloader.cds=<archive>}.
+ * <p>
+ * The archive itself is written by the JVM, either at exit ({@code -XX:ArchiveClassesAtExit=<archive>}) or after
+ * {@code loader.cds.dumpDelay} seconds ({@code -XX:+RecordDynamicDumpInfo}). With an agent attached the JVM only
+ * dumps and maps the archive under {@code -XX:+UnlockDiagnosticVMOptions -XX:+AllowArchivingWithJavaAgent}.
+ * Next to the archive the loader keeps a fingerprint of the mod set, and an archive that no longer matches is moved
+ * aside so the next start falls back to the default JDK archive.
+ * <p>
+ * Only classes from the regular class path are archived: game classes need to come from a pre-patched jar, since
+ * classes rewritten by a transformer are skipped, and the loader and mod jars need to be listed on {@code -cp}.
+ */
+class CdsArchive {
+    static final String ARCHIVE = System.getProperty("loader.cds", "");
+    static final long DUMP_DELAY = Long.getLong("loader.cds.dumpDelay", 0);
+
+    static void configure() {
+        if (ARCHIVE.isEmpty()) return;
+        Path archive = Paths.get(ARCHIVE).toAbsolutePath();
+        Path fingerprint = archive.resolveSibling(archive.getFileName() + ".properties");
+        List<String> vmArgs = ManagementFactory.getRuntimeMXBean().getInputArguments();
+
+        boolean training = hasFlag(vmArgs, "-XX:ArchiveClassesAtExit=") ||
+                DUMP_DELAY > 0 && vmArgs.contains("-XX:+RecordDynamicDumpInfo");
+        if (training && !vmArgs.contains("-XX:+AllowArchivingWithJavaAgent")) {
+            Logger.info("The JVM refuses to write a class archive while an agent is attached, " +
+                    "add -XX:+UnlockDiagnosticVMOptions -XX:+AllowArchivingWithJavaAgent", "Loader");
+        } else if (hasFlag(vmArgs, "-XX:ArchiveClassesAtExit=")) {
+            writeFingerprint(fingerprint);
+            Logger.info("Training run, the JVM will write the class archive on exit", "Loader");
+        } else if (training) {
+            writeFingerprint(fingerprint);
+            scheduleDump(archive);
+        } else if (hasFlag(vmArgs, "-XX:SharedArchiveFile=")) {
+            if (!Files.exists(archive)) {
+                Logger.info("Class archive " + archive + " does not exist yet, running without it", "Loader");
+            } else if (matches(fingerprint)) {
+                Logger.info("Class archive " + archive + " matches the current mod set" +
+                        (System.getProperty("java.vm.info", "").contains("sharing") ? "" : ", but sharing is off"),
+                        "Loader");
+            } else {
+                invalidate(archive, fingerprint);
+            }
+        } else {
+            Logger.info("Class archive mode is on but no CDS flags were passed, start once with " +
+                    "-XX:ArchiveClassesAtExit=" + archive + " and then with -XX:SharedArchiveFile=" + archive +
+                    " (both with -XX:+UnlockDiagnosticVMOptions -XX:+AllowArchivingWithJavaAgent)", "Loader");
+        }
+    }
+
+    static boolean hasFlag(List<String> vmArgs, String prefix) {
+        for (String arg : vmArgs) {
+            if (arg.startsWith(prefix)) return true;
+        }
+        return false;
+    }
+
+    static Properties fingerprint() {
+        Properties props = new Properties();
+        props.setProperty("loader.version", Loader.VERSION);
+        props.setProperty("java.vm.version", System.getProperty("java.vm.version", ""));
+        props.setProperty("java.class.path", System.getProperty("java.class.path", ""));
+        for (Map.Entry<String, String> mod : Patcher.hashMods().entrySet()) {
+            props.setProperty("mod." + mod.getKey(), mod.getValue());
+        }
+        return props;
+    }
+
+    static void writeFingerprint(Path fingerprint) {
+        try (OutputStream out = Files.newOutputStream(fingerprint)) {
+            fingerprint().store(out, "Class archive fingerprint");
+        } catch (IOException e) {
+            System.err.println("Failed to write class archive fingerprint: " + fingerprint);
+            e.printStackTrace();
+        }
+    }
+
+    static boolean matches(Path fingerprint) {
+        if (!Files.exists(fingerprint)) return false;
+        Properties stored = new Properties();
+        try (InputStream is = Files.newInputStream(fingerprint)) {
+            stored.load(is);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+        return stored.equals(fingerprint());
+    }
+
+    static void invalidate(Path archive, Path fingerprint) {
+        Logger.info("Class archive " + archive + " was built for a different mod set, " +
+                "moving it aside so the next start runs without it", "Loader");
+        try {
+            if (Files.exists(archive)) {
+                Files.move(archive, archive.resolveSibling(archive.getFileName() + ".stale"),
+                        StandardCopyOption.REPLACE_EXISTING);
+            }
+            Files.deleteIfExists(fingerprint);
+        } catch (IOException e) {
+            System.err.println("Failed to move stale class archive: " + archive);
+            e.printStackTrace();
+        }
+    }
+
+    static void scheduleDump(Path archive) {
+        for (String entry : System.getProperty("java.class.path", "").split(File.pathSeparator)) {
+            // The JVM aborts a dynamic dump outright when the class path holds a non-empty directory.
+            if (!entry.isEmpty() && new File(entry).isDirectory()) {
+                Logger.info("Class path entry " + entry + " is a directory, skipping class archive dump", "Loader");
+                return;
+            }
+        }
+        Thread dumper = new Thread(() -> {
+            try {
+                Thread.sleep(DUMP_DELAY * 1000);
+                MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                Object result = server.invoke(new ObjectName("com.sun.management:type=DiagnosticCommand"), "vmCds",
+                        new Object[]{new String[]{"dynamic_dump", archive.toString()}},
+                        new String[]{String[].class.getName()});
+                Logger.info("Wrote class archive " + archive + " " + String.valueOf(result).trim(), "Loader");
+            } catch (InterruptedException ignored) {
+            } catch (Exception e) {
+                System.err.println("Failed to dump class archive: " + archive);
+                e.printStackTrace();
+            }
+        }, "Loader CDS dump");
+        dumper.setDaemon(true);
+        dumper.start();
+    }
+}
@@ -0,0 +1,51 @@
+package io.github.freehij.loader;
+
+import io.github.freehij.loader.annotation.Condition;
+import io.github.freehij.loader.constant.Side;
+import io.github.freehij.loader.util.Logger;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+class Conditions {
+    static Side side;
+
+    static boolean test(Condition[] conditions) {
+        for (Condition condition : conditions) {
+            if (test(condition) == condition.negate()) return false;
+        }
+        return true;
+    }
+
+    static boolean test(Condition condition) {
+        if (!condition.property().isEmpty()) {
+            String value = System.getProperty(condition.property());
+            if (value == null || !condition.value().isEmpty() && !condition.value().equals(value)) return false;
+        }
+        if (!condition.mod().isEmpty()) {
+            if (Loader.mods.stream().noneMatch(mod -> condition.mod().equals(mod.id()))) return false;
+        }
+        return condition.side() == Side.ANY || condition.side() == side();
+    }
+
+    static Side side() {
+        if (side == null) {
+            String property = System.getProperty("loader.side");
+            if (property != null) {
+                try {
+                    side = Side.valueOf(property.trim().toUpperCase(Locale.ROOT));
+                } catch (IllegalArgumentException e) {
+                    // May first be needed after startup, by a hot reload or registration, so don't exit.
+                    Logger.error("Unknown loader.side " + property + ", expected one of " +
+                            Arrays.toString(Side.values()) + ". Detecting the side instead", "Loader");
+                }
+            }
+            if (side == null) {
+                // The server jar doesn't ship the client entry point, neither on its own nor bundled.
+                side = ClassLoader.getSystemResource("net/minecraft/client/main/Main.class") != null
+                        ? Side.CLIENT : Side.SERVER;
+            }
+        }
+        return side;
+    }
+}
@@ -0,0 +1,142 @@
+package io.github.freehij.loader;
+
+import io.github.freehij.loader.Loader.ModInfo;
+import io.github.freehij.loader.util.Logger;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Runs the {@link ModInitializer}s of all mods. A mod is initialized once the mods it depends on are, mods that don't
+ * depend on each other are initialized in parallel on {@code loader.init.threads} threads (the number of processors,
+ * at most 4). Startup waits for all of them unless {@code loader.init.async=true}, then they run alongside the game.
+ */
+class Entrypoints {
+    static final int THREADS = Integer.getInteger("loader.init.threads",
+            Math.min(4, Runtime.getRuntime().availableProcessors()));
+    static final boolean ASYNC = Boolean.getBoolean("loader.init.async");
+    static volatile CompletableFuture<Void> done = CompletableFuture.completedFuture(null);
+
+    /**
+     * @param loaders class loader of each mod's entrypoints
+     */
+    static void run(List<ModInfo> mods, Function<ModInfo, ClassLoader> loaders) {
+        List<ModInfo> order = order(mods);
+        if (order.stream().allMatch(mod -> mod.entrypoints().isEmpty())) return;
+        AtomicInteger threads = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, THREADS), r -> {
+            Thread thread = new Thread(r, "Loader init #" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        long start = System.nanoTime();
+        Map<String, ModInfo> byId = byId(mods);
+        // Keyed by the mod itself, mods don't need a modid.
+        Map<ModInfo, CompletableFuture<Void>> initialized = new IdentityHashMap<>();
+        for (ModInfo mod : order) {
+            CompletableFuture<?>[] dependencies = mod.depends().stream().map(id -> initialized.get(byId.get(id)))
+                    .toArray(CompletableFuture[]::new);
+            initialized.put(mod, CompletableFuture.allOf(dependencies).handleAsync((ignored, failure) -> {
+                if (failure != null) {
+                    Logger.error("Not initializing " + mod + ", a mod it depends on failed", "Loader");
+                    throw new CompletionException(failure);
+                }
+                // Only mods with entrypoints have a class loader to run them in, the synthetic loader mod has none.
+                if (!mod.entrypoints().isEmpty()) initialize(mod, loaders.apply(mod));
+                return null;
+            }, pool));
+        }
+        done = CompletableFuture.allOf(initialized.values().toArray(new CompletableFuture<?>[0]))
+                .whenComplete((ignored, failure) -> {
+                    pool.shutdown();
+                    if (failure == null) {
+                        Logger.info("Initialized mods in " + (System.nanoTime() - start) / 1_000_000 + " ms", "Loader");
+                    }
+                });
+        if (!ASYNC) await();
+    }
+
+    static void initialize(ModInfo mod, ClassLoader loader) {
+        long start = System.nanoTime();
+        if (loader == null) {
+            // Its jar failed to load, see HotReload.load.
+            System.err.println("Not running the entrypoints of " + mod + ", it is not loaded");
+            throw new CompletionException(new IllegalStateException(mod + " is not loaded"));
+        }
+        for (String name : mod.entrypoints()) {
+            try {
+                Class<?> type = Class.forName(name.replace('/', '.'), true, loader);
+                ((ModInitializer) type.getConstructor().newInstance()).onInitialize();
+            } catch (ReflectiveOperationException | RuntimeException | LinkageError e) {
+                System.err.println("Failed to run entrypoint " + name + " of " + mod);
+                e.printStackTrace();
+                throw new CompletionException(e);
+            }
+        }
+        Logger.debug("Initialized " + mod + " in " + (System.nanoTime() - start) / 1_000_000 + " ms", "Loader");
+    }
+
+    static void await() {
+        try {
+            done.join();
+        } catch (CompletionException e) {
+            throw new IllegalStateException("Mod initialization failed", e.getCause());
+        }
+    }
+
+    /**
+     * @return the mods, each after the ones it depends on
+     * @throws IllegalStateException if a dependency is missing, mods depend on each other or share a modid
+     */
+    static List<ModInfo> order(List<ModInfo> mods) {
+        Map<String, ModInfo> byId = byId(mods);
+        List<ModInfo> order = new ArrayList<>();
+        // Absent: not seen yet, false: its dependencies are being visited, true: ordered.
+        Map<ModInfo, Boolean> visited = new IdentityHashMap<>();
+        for (ModInfo mod : mods) visit(mod, byId, visited, new ArrayList<>(), order);
+        return order;
+    }
+
+    /**
+     * @return the mods that have a modid, only dependencies are looked up by it
+     */
+    static Map<String, ModInfo> byId(List<ModInfo> mods) {
+        Map<String, ModInfo> byId = new HashMap<>();
+        for (ModInfo mod : mods) {
+            if (mod.id() == null) continue;
+            ModInfo other = byId.putIfAbsent(mod.id(), mod);
+            if (other != null) throw new IllegalStateException(other + " and " + mod + " have the same modid");
+        }
+        return byId;
+    }
+
+    static void visit(ModInfo mod, Map<String, ModInfo> byId, Map<ModInfo, Boolean> visited, List<ModInfo> path,
+                      List<ModInfo> order) {
+        Boolean state = visited.get(mod);
+        if (state == Boolean.TRUE) return;
+        if (state == Boolean.FALSE) {
+            // Only mods with a modid can be depended on, so everything in a cycle has one.
+            List<String> cycle = new ArrayList<>();
+            for (ModInfo member : path.subList(path.indexOf(mod), path.size())) cycle.add(member.id());
+            cycle.add(mod.id());
+            throw new IllegalStateException("Mods depend on each other: " + String.join(" -> ", cycle));
+        }
+        visited.put(mod, false);
+        path.add(mod);
+        for (String dependency : mod.depends()) {
+            ModInfo target = byId.get(dependency);
+            if (target == null) {
+                throw new IllegalStateException(mod + " depends on " + dependency + ", which is not installed");
+            }
+            visit(target, byId, visited, path, order);
+        }
+        path.remove(path.size() - 1);
+        visited.put(mod, true);
+        order.add(mod);
+    }
+}
@@ -0,0 +1,274 @@
+package io.github.freehij.loader;
+
+import io.github.freehij.loader.Loader.InjectionPoint;
+import io.github.freehij.loader.util.Logger;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.*;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * Classes of the game with their super types and declared methods, read from the jars without loading anything.
+ * The jars are {@code loader.game} (separated like the class path) or else every jar on the class path except the
+ * loader and the mods.
+ * <p>
+ * Built when an injection class targets {@code subclassesOf}, or at startup with {@code -Dloader.index=<file>}, which
+ * also caches it in that file until one of the jars changes. Once built, injections whose target doesn't declare the
+ * injected method are pruned before any class is transformed.
+ */
+class GameIndex {
+    static final int MAGIC = 0x4C494458, FORMAT = 1;
+    static final String CACHE = System.getProperty("loader.index", "");
+    static final boolean VALIDATE = !CACHE.isEmpty();
+    // Null for the class path. When set explicitly the index has the whole game, so missing classes are missing.
+    static List<Path> sources = jars(System.getProperty("loader.game", ""));
+    static volatile GameIndex index;
+    static boolean failed;
+    static final AtomicInteger pruned = new AtomicInteger();
+
+    final Map<String, ClassInfo> classes;
+    // Type -> classes directly extending or implementing it.
+    final Map<String, List<String>> subtypes = new HashMap<>();
+
+    record ClassInfo(String name, int access, String superName, String[] interfaces, String[] methods) {
+        boolean declares(Set<String> names, String descriptor) {
+            for (String method : methods) {
+                int paren = method.indexOf('(');
+                if (names.contains(method.substring(0, paren)) &&
+                        (descriptor.isEmpty() || method.substring(paren).equals(descriptor))) return true;
+            }
+            return false;
+        }
+    }
+
+    GameIndex(Map<String, ClassInfo> classes) {
+        this.classes = classes;
+        for (ClassInfo info : classes.values()) {
+            if (info.superName != null) subtypes.computeIfAbsent(info.superName, k -> new ArrayList<>()).add(info.name);
+            for (String type : info.interfaces) subtypes.computeIfAbsent(type, k -> new ArrayList<>()).add(info.name);
+        }
+    }
+
+    static List<Path> jars(String paths) {
+        if (paths.isEmpty()) return null;
+        List<Path> jars = new ArrayList<>();
+        for (String entry : paths.split(File.pathSeparator)) {
+            if (!entry.isEmpty()) jars.add(Paths.get(entry).toAbsolutePath().normalize());
+        }
+        return jars;
+    }
+
+    /**
+     * @return the index, built or read from the cache on first use, or null if the game jars can't be read
+     */
+    static synchronized GameIndex get() {
+        if (index != null || failed) return index;
+        long start = System.nanoTime();
+        List<Path> jars = sources != null ? sources : classPathJars();
+        try {
+            List<String> fingerprint = fingerprint(jars);
+            Path cache = CACHE.isEmpty() ? null : Paths.get(CACHE);
+            index = cache == null ? null : read(cache, fingerprint);
+            if (index != null) {
+                Logger.info("Read the index of " + index.classes.size() + " game classes in " +
+                        (System.nanoTime() - start) / 1_000_000 + " ms", "Loader");
+            } else {
+                index = build(jars);
+                Logger.info("Indexed " + index.classes.size() + " game classes from " + jars.size() + " jars in " +
+                        (System.nanoTime() - start) / 1_000_000 + " ms", "Loader");
+                if (cache != null) index.write(cache, fingerprint);
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to index the game classes");
+            e.printStackTrace();
+            failed = true;
+        }
+        LoaderEvents.phase("indexGame", start);
+        return index;
+    }
+
+    static List<Path> classPathJars() {
+        Set<Path> excluded = new HashSet<>();
+        try {
+            excluded.add(Paths.get(Loader.class.getProtectionDomain().getCodeSource().getLocation().toURI()));
+            for (URL url : Loader.modUrls) excluded.add(Paths.get(url.toURI()));
+        } catch (URISyntaxException | RuntimeException ignored) {
+        }
+        List<Path> jars = new ArrayList<>();
+        for (Path entry : Objects.requireNonNull(jars(System.getProperty("java.class.path", "")))) {
+            // Directories have no cheap fingerprint, the game comes in jars anyway.
+            if (!Files.isRegularFile(entry) || excluded.contains(entry)) continue;
+            jars.add(entry);
+        }
+        return jars;
+    }
+
+    static List<String> fingerprint(List<Path> jars) throws IOException {
+        List<String> fingerprint = new ArrayList<>();
+        for (Path jar : jars) {
+            fingerprint.add(jar + "|" + Files.size(jar) + "|" + Files.getLastModifiedTime(jar).toMillis());
+        }
+        return fingerprint;
+    }
+
+    static GameIndex build(List<Path> jars) throws IOException {
+        Map<String, ClassInfo> classes = new HashMap<>();
+        for (Path path : jars) {
+            try (JarFile jar = new JarFile(path.toFile())) {
+                for (Enumeration<JarEntry> entries = jar.entries(); entries.hasMoreElements(); ) {
+                    JarEntry entry = entries.nextElement();
+                    String name = entry.getName();
+                    if (!name.endsWith(".class") || name.startsWith("META-INF/") || name.equals("module-info.class")) {
+                        continue;
+                    }
+                    ClassReader reader;
+                    try (InputStream is = jar.getInputStream(entry)) {
+                        reader = new ClassReader(is);
+                    }
+                    // Earlier jars win, like on the class path.
+                    if (!classes.containsKey(reader.getClassName())) classes.put(reader.getClassName(), read(reader));
+                }
+            }
+        }
+        return new GameIndex(classes);
+    }
+
+    static ClassInfo read(ClassReader reader) {
+        List<String> methods = new ArrayList<>();
+        reader.accept(new ClassVisitor(Opcodes.ASM9) {
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String desc, String sig, String[] ex) {
+                methods.add(name + desc);
+                return null;
+            }
+        }, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+        return new ClassInfo(reader.getClassName(), reader.getAccess(), reader.getSuperName(), reader.getInterfaces(),
+                methods.toArray(new String[0]));
+    }
+
+    // Names and descriptors repeat a lot, each string is written once and referred to by its number.
+    static GameIndex read(Path cache, List<String> fingerprint) {
+        if (!Files.exists(cache)) return null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(cache)))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT) return null;
+            List<String> stored = new ArrayList<>();
+            for (int i = in.readInt(); i > 0; i--) stored.add(in.readUTF());
+            if (!stored.equals(fingerprint)) {
+                Logger.info("The game jars changed since " + cache + " was written, indexing them again", "Loader");
+                return null;
+            }
+            String[] strings = new String[in.readInt()];
+            for (int i = 0; i < strings.length; i++) strings[i] = in.readUTF();
+            Map<String, ClassInfo> classes = new HashMap<>();
+            for (int i = in.readInt(); i > 0; i--) {
+                String name = strings[in.readInt()];
+                int access = in.readInt();
+                int superName = in.readInt();
+                String[] interfaces = new String[in.readInt()];
+                for (int j = 0; j < interfaces.length; j++) interfaces[j] = strings[in.readInt()];
+                String[] methods = new String[in.readInt()];
+                for (int j = 0; j < methods.length; j++) methods[j] = strings[in.readInt()];
+                classes.put(name, new ClassInfo(name, access, superName < 0 ? null : strings[superName], interfaces,
+                        methods));
+            }
+            return new GameIndex(classes);
+        } catch (IOException | RuntimeException e) {
+            Logger.warn("Failed to read the game index " + cache + " (" + e + "), indexing again", "Loader");
+            return null;
+        }
+    }
+
+    void write(Path cache, List<String> fingerprint) {
+        Map<String, Integer> numbers = new LinkedHashMap<>();
+        for (ClassInfo info : classes.values()) {
+            numbers.putIfAbsent(info.name, numbers.size());
+            if (info.superName != null) numbers.putIfAbsent(info.superName, numbers.size());
+            for (String type : info.interfaces) numbers.putIfAbsent(type, numbers.size());
+            for (String method : info.methods) numbers.putIfAbsent(method, numbers.size());
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(cache)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT);
+            out.writeInt(fingerprint.size());
+            for (String entry : fingerprint) out.writeUTF(entry);
+            out.writeInt(numbers.size());
+            for (String string : numbers.keySet()) out.writeUTF(string);
+            out.writeInt(classes.size());
+            for (ClassInfo info : classes.values()) {
+                out.writeInt(numbers.get(info.name));
+                out.writeInt(info.access);
+                out.writeInt(info.superName == null ? -1 : numbers.get(info.superName));
+                out.writeInt(info.interfaces.length);
+                for (String type : info.interfaces) out.writeInt(numbers.get(type));
+                out.writeInt(info.methods.length);
+                for (String method : info.methods) out.writeInt(numbers.get(method));
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to write the game index " + cache);
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @return every class extending or implementing {@code type}, directly or not, without {@code type} itself
+     */
+    Set<String> subtypesOf(String type) {
+        Set<String> found = new TreeSet<>();
+        Deque<String> queue = new ArrayDeque<>(List.of(type));
+        while (!queue.isEmpty()) {
+            for (String subtype : subtypes.getOrDefault(queue.poll(), List.of())) {
+                if (found.add(subtype)) queue.add(subtype);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @return why the point can never be applied, or null if it can or the index doesn't know its target
+     */
+    String check(InjectionPoint point) {
+        ClassInfo target = classes.get(point.targetClass);
+        if (target == null) return sources != null ? "the game has no class " + point.targetClass : null;
+        if (target.declares(point.methods, point.descriptor)) return null;
+        return point.targetClass + " declares no method " + point.methods +
+                (point.descriptor.isEmpty() ? "" : " " + point.descriptor);
+    }
+
+    /**
+     * @return the closest common super class like {@link org.objectweb.asm.ClassWriter#getCommonSuperClass}, or null
+     * if it takes a class outside the index or an interface to tell
+     */
+    String commonSuperClass(String type1, String type2) {
+        List<String> supers1 = superClasses(type1);
+        List<String> supers2 = supers1 == null ? null : superClasses(type2);
+        if (supers2 == null) return null;
+        for (String type : supers1) {
+            if (supers2.contains(type)) return type;
+        }
+        return null;
+    }
+
+    // The class and its super classes up to Object.
+    List<String> superClasses(String type) {
+        List<String> supers = new ArrayList<>();
+        while (!type.equals("java/lang/Object")) {
+            ClassInfo info = classes.get(type);
+            if (info == null || (info.access & Opcodes.ACC_INTERFACE) != 0 || info.superName == null) return null;
+            supers.add(type);
+            type = info.superName;
+        }
+        supers.add(type);
+        return supers;
+    }
+}
@@ -0,0 +1,266 @@
+package io.github.freehij.loader;
+
+import io.github.freehij.loader.util.Logger;
+import org.objectweb.asm.*;
+import org.objectweb.asm.tree.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Copies handler bytecode into injected methods for {@code @Inject(inline = true)}. The handler's locals move above
+ * the helper slot (100), its returns become jumps past the copy.
+ * <p>
+ * A handler that only reads its helper through {@code getSelf()}, {@code getArgs()[n]}, {@code getArg(n)},
+ * {@code getLocals()[n]} and {@code isCancelled()} gets no helper at all, those calls are replaced with loads of the
+ * target's own locals. Anything the target class might not be able to access, exception handlers, invokedynamic and
+ * handlers above {@code loader.inline.maxSize} instructions (64) are called normally instead.
+ */
+class HandlerInliner {
+    static final int MAX_SIZE = Integer.getInteger("loader.inline.maxSize", 64);
+    static final String HELPER = "io/github/freehij/loader/util/InjectionHelper";
+    static final String HANDLER_DESC = "(L" + HELPER + ";)V";
+    static final String HIDDEN = " of its own class, which the target can't see";
+
+    /**
+     * @param maxArg highest argument index read without a helper, -1 if none
+     */
+    record Body(MethodNode method, boolean needsHelper, int maxArg, int maxLocal) { }
+
+    static ClassNode read(String className, ClassLoader loader) {
+        try (InputStream is = loader.getResourceAsStream(className + ".class")) {
+            if (is == null) return null;
+            ClassNode node = new ClassNode();
+            new ClassReader(is).accept(node, ClassReader.SKIP_DEBUG);
+            return node;
+        } catch (IOException e) {
+            System.err.println("Failed to read handler class " + className);
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * @return the body to inline, or null to call the handler
+     */
+    static Body analyze(ClassNode owner, String methodName, boolean ownerVisible) {
+        String name = owner.name + " -> " + methodName;
+        MethodNode method = null;
+        for (MethodNode candidate : owner.methods) {
+            if (candidate.name.equals(methodName) && candidate.desc.equals(HANDLER_DESC)) method = candidate;
+        }
+        String problem = method == null || (method.access & Opcodes.ACC_STATIC) == 0 ? "not a static handler"
+                : !method.tryCatchBlocks.isEmpty() ? "it catches exceptions"
+                : size(method) > MAX_SIZE ? "it is larger than " + MAX_SIZE + " instructions"
+                : inaccessible(owner, method, ownerVisible);
+        if (problem != null) {
+            Logger.warn("Not inlining " + name + ", " + problem, "Loader");
+            return null;
+        }
+        boolean needsHelper = false;
+        int maxArg = -1, maxLocal = -1;
+        for (AbstractInsnNode insn = method.instructions.getFirst(); insn != null; insn = insn.getNext()) {
+            if (!(insn instanceof VarInsnNode var) || var.var != 0) continue;
+            Accessor accessor = Accessor.match(var);
+            if (accessor == null) {
+                needsHelper = true;
+            } else if (accessor.kind == Accessor.ARG) {
+                maxArg = Math.max(maxArg, accessor.index);
+            } else if (accessor.kind == Accessor.LOCAL) {
+                maxLocal = Math.max(maxLocal, accessor.index);
+            }
+        }
+        return new Body(method, needsHelper, maxArg, maxLocal);
+    }
+
+    static int size(MethodNode method) {
+        int size = 0;
+        for (AbstractInsnNode insn : method.instructions) {
+            if (insn.getOpcode() >= 0) size++;
+        }
+        return size;
+    }
+
+    // The copy runs with the target's access rights: only the handler's own public members, the JDK and the
+    // loader's public API are safe to touch from there. Handlers in the mod class loader can't even be seen.
+    static String inaccessible(ClassNode owner, MethodNode method, boolean ownerVisible) {
+        boolean publicOwner = ownerVisible && (owner.access & Opcodes.ACC_PUBLIC) != 0;
+        for (AbstractInsnNode insn : method.instructions) {
+            String type = null;
+            if (insn instanceof InvokeDynamicInsnNode) return "it uses invokedynamic";
+            if (insn.getOpcode() == Opcodes.JSR || insn.getOpcode() == Opcodes.RET) return "it uses subroutines";
+            if (insn instanceof FieldInsnNode field) {
+                if (field.owner.equals(owner.name)) {
+                    if (!publicOwner || !isPublic(owner, field.name, field.desc, true)) {
+                        return "it accesses " + field.name + (ownerVisible ? " which is not public" : HIDDEN);
+                    }
+                    continue;
+                }
+                type = field.owner;
+            } else if (insn instanceof MethodInsnNode call) {
+                if (call.owner.equals(owner.name)) {
+                    if (!publicOwner || !isPublic(owner, call.name, call.desc, false)) {
+                        return "it calls " + call.name + (ownerVisible ? " which is not public" : HIDDEN);
+                    }
+                    continue;
+                }
+                type = call.owner;
+            } else if (insn instanceof TypeInsnNode typeInsn) {
+                type = typeInsn.desc;
+            } else if (insn instanceof MultiANewArrayInsnNode array) {
+                type = array.desc;
+            } else if (insn instanceof LdcInsnNode ldc && ldc.cst instanceof Type constant) {
+                type = constant.getSort() == Type.METHOD ? null : constant.getInternalName();
+            }
+            if (type != null && !isSafe(owner, type, ownerVisible)) return "it uses " + type;
+        }
+        return null;
+    }
+
+    static boolean isPublic(ClassNode owner, String name, String desc, boolean field) {
+        if (field) {
+            for (FieldNode node : owner.fields) {
+                if (node.name.equals(name) && node.desc.equals(desc)) return (node.access & Opcodes.ACC_PUBLIC) != 0;
+            }
+        } else {
+            for (MethodNode node : owner.methods) {
+                if (node.name.equals(name) && node.desc.equals(desc)) return (node.access & Opcodes.ACC_PUBLIC) != 0;
+            }
+        }
+        return false;
+    }
+
+    static boolean isSafe(ClassNode owner, String type, boolean ownerVisible) {
+        if (type.startsWith("[")) {
+            Type element = Type.getType(type).getElementType();
+            if (element.getSort() != Type.OBJECT) return true;
+            type = element.getInternalName();
+        }
+        return type.startsWith("java/") || ownerVisible && type.equals(owner.name) && (owner.access & Opcodes.ACC_PUBLIC) != 0 ||
+                type.equals(HELPER) || type.equals("io/github/freehij/loader/util/Logger") ||
+                type.equals("io/github/freehij/loader/util/Reflector");
+    }
+
+    /**
+     * Emits the body. With a helper it has to be in local 100, without one {@code args} and {@code locals} give the
+     * target slots the accessors read from.
+     */
+    static void emit(MethodVisitor mv, Body body, boolean helper, boolean isStatic, Type[] argTypes, int[] argSlots,
+                     Type[] localTypes, int[] localSlots) {
+        Map<LabelNode, LabelNode> labels = new HashMap<>();
+        for (AbstractInsnNode insn : body.method.instructions) {
+            if (insn instanceof LabelNode label) labels.put(label, new LabelNode());
+        }
+        Label end = new Label();
+        MethodVisitor remapper = new MethodVisitor(Opcodes.ASM9, mv) {
+            @Override
+            public void visitVarInsn(int opcode, int var) {
+                super.visitVarInsn(opcode, 100 + var);
+            }
+
+            @Override
+            public void visitIincInsn(int var, int increment) {
+                super.visitIincInsn(100 + var, increment);
+            }
+
+            @Override
+            public void visitInsn(int opcode) {
+                if (opcode == Opcodes.RETURN) {
+                    super.visitJumpInsn(Opcodes.GOTO, end);
+                } else {
+                    super.visitInsn(opcode);
+                }
+            }
+
+            @Override
+            public void visitFrame(int type, int numLocal, Object[] local, int numStack, Object[] stack) {
+            }
+
+            @Override
+            public void visitLineNumber(int line, Label start) {
+            }
+        };
+        AbstractInsnNode last = body.method.instructions.getLast();
+        while (last != null && last.getOpcode() < 0) last = last.getPrevious();
+        for (AbstractInsnNode insn = body.method.instructions.getFirst(); insn != null; insn = insn.getNext()) {
+            if (!helper && insn instanceof VarInsnNode var && var.var == 0) {
+                Accessor accessor = Accessor.match(var);
+                switch (accessor.kind) {
+                    case Accessor.SELF -> {
+                        if (isStatic) {
+                            mv.visitInsn(Opcodes.ACONST_NULL);
+                        } else {
+                            mv.visitVarInsn(Opcodes.ALOAD, 0);
+                        }
+                    }
+                    case Accessor.NOT_CANCELLED -> mv.visitInsn(Opcodes.ICONST_0);
+                    case Accessor.ARG -> {
+                        mv.visitVarInsn(argTypes[accessor.index].getOpcode(Opcodes.ILOAD), argSlots[accessor.index]);
+                        AsmBackend.boxElement(mv, argTypes[accessor.index]);
+                    }
+                    case Accessor.LOCAL -> {
+                        mv.visitVarInsn(localTypes[accessor.index].getOpcode(Opcodes.ILOAD),
+                                localSlots[accessor.index]);
+                        AsmBackend.boxElement(mv, localTypes[accessor.index]);
+                    }
+                }
+                insn = accessor.last;
+                continue;
+            }
+            if (insn == last && insn.getOpcode() == Opcodes.RETURN) break;
+            insn.clone(labels).accept(remapper);
+        }
+        mv.visitLabel(end);
+    }
+
+    /**
+     * A helper accessor call starting at {@code ALOAD 0} that can be replaced without a helper, and the instruction it
+     * ends with.
+     */
+    record Accessor(int kind, int index, AbstractInsnNode last) {
+        static final int SELF = 0, NOT_CANCELLED = 1, ARG = 2, LOCAL = 3;
+
+        static Accessor match(VarInsnNode load) {
+            if (load.getOpcode() != Opcodes.ALOAD) return null;
+            AbstractInsnNode next = next(load);
+            if (next instanceof MethodInsnNode call && call.owner.equals(HELPER)) {
+                switch (call.name) {
+                    case "getSelf": return new Accessor(SELF, 0, call);
+                    case "isCancelled": return new Accessor(NOT_CANCELLED, 0, call);
+                    case "getArgs":
+                    case "getLocals":
+                        AbstractInsnNode index = next(call);
+                        AbstractInsnNode aaload = index == null ? null : next(index);
+                        Integer value = constant(index);
+                        if (value == null || aaload == null || aaload.getOpcode() != Opcodes.AALOAD) return null;
+                        return new Accessor(call.name.equals("getArgs") ? ARG : LOCAL, value, aaload);
+                }
+                return null;
+            }
+            Integer value = constant(next);
+            AbstractInsnNode call = value == null ? null : next(next);
+            if (call instanceof MethodInsnNode getArg && getArg.owner.equals(HELPER) &&
+                    getArg.name.equals("getArg") && value >= 1) {
+                return new Accessor(ARG, value - 1, call);
+            }
+            return null;
+        }
+
+        static AbstractInsnNode next(AbstractInsnNode insn) {
+            do {
+                insn = insn.getNext();
+            } while (insn != null && insn.getOpcode() < 0);
+            return insn;
+        }
+
+        static Integer constant(AbstractInsnNode insn) {
+            if (insn == null) return null;
+            int opcode = insn.getOpcode();
+            if (opcode >= Opcodes.ICONST_0 && opcode <= Opcodes.ICONST_5) return opcode - Opcodes.ICONST_0;
+            if (opcode == Opcodes.BIPUSH || opcode == Opcodes.SIPUSH) return ((IntInsnNode) insn).operand;
+            return null;
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package io.github.freehij.loader;
+
+import io.github.freehij.loader.Loader.InjectionPoint;
+import io.github.freehij.loader.Loader.ModInfo;
+import io.github.freehij.loader.util.HandlerLinker;
+import io.github.freehij.loader.util.Logger;
+
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hot reloading of mod jars, enabled with -Dloader.hotReload=true (not available with Fabric or the bundled server).
+ * Every mod gets a class loader of its own reading a copy of its jar, so the jar itself can be replaced while the game
+ * runs. It sees the classes of the mods listed under {@code depends}, in their version at the time of the lookup.
+ * Changed jars in the mods directory are picked up once they have not been written to for
+ * {@code loader.hotReload.debounce} milliseconds (500), {@link Loader#reloadMod} reloads a mod on demand.
+ * <p>
+ * A reload parses the mod's injection classes again and points its handler call sites at the new classes through
+ * {@link HandlerLinker}. Only targets whose injections changed are retransformed, all in one batch. Retransformation
+ * can't add or remove methods and fields, targets where that would be needed keep their old code until a restart.
+ */
+class HotReload {
+    static final long DEBOUNCE_MILLIS = Long.getLong("loader.hotReload.debounce", 500);
+    // Jar a mod was loaded from -> the class loader of its current version.
+    static final Map<Path, ClassLoader> loaders = new ConcurrentHashMap<>();
+    static Path copies;
+    static int copyCount;
+
+    /**
+     * Loads a mod into a new class loader, adding its injection points to {@code into}.
+     */
+    static boolean load(ModInfo mod, Map<String, List<InjectionPoint>> into) {
+        try {
+            if (copies == null) {
+                copies = Files.createTempDirectory("loader-mods");
+                copies.toFile().deleteOnExit();
+            }
+            String name = mod.jarPath().getFileName().toString();
+            int dot = name.lastIndexOf('.');
+            Path copy = copies.resolve((dot > 0 ? name.substring(0, dot) : name) + "-" + copyCount++ + ".jar");
+            Files.copy(mod.jarPath(), copy);
+            copy.toFile().deleteOnExit();
+            URLClassLoader loader = new ModLoader(copy.toUri().toURL(), mod.depends());
+            for (String className : mod.injections()) {
+                if (!className.isEmpty()) Loader.processInjectionClass(className, loader, mod.id(), mod.jarPath(), true,
+                        into);
+            }
+            for (String className : mod.injections()) {
+                if (!className.isEmpty()) HandlerLinker.setOwner(className, loader);
+            }
+            loaders.put(mod.jarPath(), loader);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Failed to load mod " + mod.id() + " from " + mod.jarPath());
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    static ClassLoader loader(String modId) {
+        for (ModInfo mod : Loader.mods) {
+            if (modId.equals(mod.id()) && mod.jarPath() != null) return loaders.get(mod.jarPath());
+        }
+        return null;
+    }
+
+    /**
+     * Class loader of one version of a mod. Classes missing from its jar are looked up in the current versions of
+     * the mods it depends on, only in their own jars so mods that depend on each other can't loop.
+     */
+    static class ModLoader extends URLClassLoader {
+        static {
+            registerAsParallelCapable();
+        }
+
+        final List<String> depends;
+
+        ModLoader(URL jar, List<String> depends) {
+            super(new URL[]{jar}, Loader.class.getClassLoader());
+            this.depends = depends;
+        }
+
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            try {
+                return super.findClass(name);
+            } catch (ClassNotFoundException e) {
+                for (String modId : depends) {
+                    if (!(loader(modId) instanceof ModLoader dependency)) continue;
+                    try {
+                        return dependency.findOwnClass(name);
+                    } catch (ClassNotFoundException ignored) {
+                    }
+                }
+                throw e;
+            }
+        }
+
+        Class<?> findOwnClass(String name) throws ClassNotFoundException {
+            synchronized (getClassLoadingLock(name)) {
+                Class<?> loaded = findLoadedClass(name);
+                return loaded != null ? loaded : super.findClass(name);
+            }
+        }
+    }
+
+    static synchronized void reload(Path jar) {
+        long start = System.nanoTime();
+        ModInfo mod;
+        try {
+            mod = Loader.readMod(jar);
+        } catch (IOException e) {
+            System.err.println("Failed to read mod " + jar);
+            e.printStackTrace();
+            return;
+        }
+        if (mod == null) {
+            Logger.warn(jar + " has no mod.properties, not reloading it", "Loader");
+            return;
+        }
+        ModInfo old = find(jar);
+        Map<String, List<InjectionPoint>> added = new HashMap<>();
+        // The old loader stays open, its classes may still be running and load more classes.
+        if (!load(mod, added)) return;
+        swap(old, mod, added);
+        Logger.info("Reloaded " + mod + " in " + (System.nanoTime() - start) / 1_000_000 + " ms", "Loader");
+    }
+
+    static synchronized void unload(Path jar) {
+        ModInfo old = find(jar);
+        if (old == null) return;
+        for (String className : old.injections()) HandlerLinker.setOwner(className, null);
+        loaders.remove(jar);
+        swap(old, null, Map.of());
+        Logger.info("Unloaded " + old, "Loader");
+    }
+
+    static ModInfo find(Path jar) {
+        for (ModInfo mod : Loader.mods) {
+            if (jar.equals(mod.jarPath())) return mod;
+        }
+        return null;
+    }
+
+    static void swap(ModInfo old, ModInfo mod, Map<String, List<InjectionPoint>> added) {
+        Set<String> changed = Loader.replaceInjections(p -> old != null && old.jarPath().equals(p.jar), added);
+        List<String> handlers = new ArrayList<>();
+        if (old != null) handlers.addAll(old.injections());
+        if (mod != null) handlers.addAll(mod.injections());
+        if (old == null) {
+            Loader.mods.add(mod);
+        } else if (mod == null) {
+            Loader.mods.remove(old);
+        } else {
+            Loader.mods.set(Loader.mods.indexOf(old), mod);
+            for (String className : old.injections()) {
+                if (!mod.injections().contains(className)) HandlerLinker.setOwner(className, null);
+            }
+        }
+        HandlerLinker.relink(handlers);
+        Loader.retransform(changed);
+    }
+
+    static void watch(Path modsDir) {
+        WatchService service;
+        try {
+            service = modsDir.getFileSystem().newWatchService();
+            modsDir.register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+                    StandardWatchEventKinds.ENTRY_DELETE);
+        } catch (IOException e) {
+            System.err.println("Failed to watch " + modsDir + " for changed mods");
+            e.printStackTrace();
+            return;
+        }
+        Thread watcher = new Thread(() -> watchLoop(service, modsDir), "Loader mod watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+        Logger.info("Watching " + modsDir + " for changed mods", "Loader");
+    }
+
+    // Jars are usually written in several steps, a change is only handled once its jar stayed untouched for a while.
+    static void watchLoop(WatchService service, Path modsDir) {
+        Map<Path, Long> pending = new HashMap<>();
+        try {
+            while (true) {
+                WatchKey key = pending.isEmpty() ? service.take() : service.poll(50, TimeUnit.MILLISECONDS);
+                if (key != null) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) continue;
+                        Path jar = modsDir.resolve((Path) event.context());
+                        String name = jar.getFileName().toString();
+                        if (name.endsWith(".jar") || name.endsWith(".zip")) pending.put(jar, System.nanoTime());
+                    }
+                    if (!key.reset()) return;
+                }
+                long now = System.nanoTime();
+                for (Iterator<Map.Entry<Path, Long>> it = pending.entrySet().iterator(); it.hasNext(); ) {
+                    Map.Entry<Path, Long> entry = it.next();
+                    if (now - entry.getValue() < DEBOUNCE_MILLIS * 1_000_000) continue;
+                    it.remove();
+                    if (Files.exists(entry.getKey())) {
+                        reload(entry.getKey());
+                    } else {
+                        unload(entry.getKey());
+                    }
+                }
+            }
+        } catch (InterruptedException ignored) {
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package io.github.freehij.loader;
+
+import com.sun.management.HotSpotDiagnosticMXBean;
+import io.github.freehij.loader.util.Logger;
+import org.objectweb.asm.ClassReader;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Warns about injected methods whose bytecode grew past a HotSpot inlining or compilation limit.
+ * Enabled with -Dloader.jitReport=true, it reads every transformed class again.
+ */
+class JitReport {
+    static final boolean ENABLED = Boolean.getBoolean("loader.jitReport");
+    static final String[] FLAGS = {"MaxInlineSize", "FreqInlineSize", "HugeMethodLimit"};
+    static final int[] LIMITS = {vmOption("MaxInlineSize", 35), vmOption("FreqInlineSize", 325),
+            vmOption("DontCompileHugeMethods", 1) != 0 ? vmOption("HugeMethodLimit", 8000) : Integer.MAX_VALUE};
+
+    static void check(String className, byte[] before, byte[] after) {
+        Map<String, Integer> oldSizes = codeSizes(before);
+        for (Map.Entry<String, Integer> method : codeSizes(after).entrySet()) {
+            Integer oldSize = oldSizes.get(method.getKey());
+            if (oldSize == null) continue;
+            int newSize = method.getValue();
+            StringBuilder crossed = new StringBuilder();
+            for (int i = 0; i < LIMITS.length; i++) {
+                if (oldSize <= LIMITS[i] && newSize > LIMITS[i]) {
+                    if (crossed.length() > 0) crossed.append(", ");
+                    crossed.append(FLAGS[i]).append(" (").append(LIMITS[i]).append(")");
+                }
+            }
+            if (crossed.length() == 0) continue;
+            Logger.warn("Injections grew " + className + "." + method.getKey() + " from " + oldSize + " to " +
+                    newSize + " bytes, past " + crossed + ". Consider @Inject(outline = true)", "Loader");
+        }
+    }
+
+    static Map<String, Integer> codeSizes(byte[] classFile) {
+        ClassReader cr = new ClassReader(classFile);
+        char[] buffer = new char[cr.getMaxStringLength()];
+        Map<String, Integer> sizes = new HashMap<>();
+        int offset = cr.header + 6;
+        offset += 2 + 2 * cr.readUnsignedShort(offset);
+        int fields = cr.readUnsignedShort(offset);
+        offset += 2;
+        for (int i = 0; i < fields; i++) {
+            int attributes = cr.readUnsignedShort(offset + 6);
+            offset += 8;
+            for (int j = 0; j < attributes; j++) offset += 6 + cr.readInt(offset + 2);
+        }
+        int methods = cr.readUnsignedShort(offset);
+        offset += 2;
+        for (int i = 0; i < methods; i++) {
+            String method = cr.readUTF8(offset + 2, buffer) + cr.readUTF8(offset + 4, buffer);
+            int attributes = cr.readUnsignedShort(offset + 6);
+            offset += 8;
+            for (int j = 0; j < attributes; j++) {
+                // Code attribute: name, length, max_stack, max_locals, code_length
+                if (cr.readUTF8(offset, buffer).equals("Code")) sizes.put(method, cr.readInt(offset + 10));
+                offset += 6 + cr.readInt(offset + 2);
+            }
+        }
+        return sizes;
+    }
+
+    static int vmOption(String name, int fallback) {
+        try {
+            String value = ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class).getVMOption(name)
+                    .getValue();
+            return value.equals("true") ? 1 : value.equals("false") ? 0 : Integer.parseInt(value);
+        } catch (RuntimeException e) {
+            return fallback;
+        }
+    }
+}
@@ -1,19 +1,22 @@
 package io.github.freehij.loader;
 
+import io.github.freehij.injections.ServerTickProfiler;
 import io.github.freehij.loader.annotation.AdvancedAt;
 import io.github.freehij.loader.annotation.Inject;
-import io.github.freehij.loader.annotation.Local;
 import io.github.freehij.loader.constant.ArgMode;
 import io.github.freehij.loader.constant.At;
 import io.github.freehij.loader.constant.FailStrategy;
-import io.github.freehij.loader.constant.Shift;
+import io.github.freehij.loader.constant.ThreadAffinity;
 import io.github.freehij.loader.util.AnnotationParser;
+import io.github.freehij.loader.util.HandlerLinker;
+import io.github.freehij.loader.util.InjectionToggles;
 import io.github.freehij.loader.util.Logger;
-import org.objectweb.asm.*;
+import org.objectweb.asm.tree.ClassNode;
 
 import java.io.*;
 import java.lang.instrument.ClassFileTransformer;
 import java.lang.instrument.Instrumentation;
+import java.lang.instrument.UnmodifiableClassException;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.nio.file.DirectoryStream;
@@ -22,39 +25,140 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.security.ProtectionDomain;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Predicate;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 
-@SuppressWarnings("deprecation")
 public class Loader {
     static final String VERSION = "a1.0.0";
-    static final Map<String, List<InjectionPoint>> injectionPoints = new HashMap<>();
-    static final List<ModInfo> mods = new ArrayList<>();
+    // Reloading replaces lists instead of changing them, transformations may be running at the same time.
+    static final Map<String, List<InjectionPoint>> injectionPoints = new ConcurrentHashMap<>();
+    static final List<ModInfo> mods = new CopyOnWriteArrayList<>();
     static final List<URL> modUrls = new ArrayList<>();
+    static final TransformBackend backend = TransformBackend.select(System.getProperty("loader.backend", "asm"));
+    static Instrumentation instrumentation;
+    static Transformer transformer;
+    static ModClassLoader modLoader;
+    static boolean hotReload = Boolean.getBoolean("loader.hotReload");
 
     public static void premain(String args, Instrumentation inst) {
+        long start = System.nanoTime();
+        instrumentation = inst;
         defineMods(true);
+        LoaderEvents.phase("defineMods", start);
+        boolean fabric = hasFabric(), bundler = hasBundler();
+        // Both run the game against copies of the mods and the linker of their own, which reloading can't reach.
+        if (hotReload && (fabric || bundler)) {
+            Logger.warn("Hot reloading is not supported with " + (fabric ? "Fabric" : "the bundled server") +
+                    ", mods are loaded normally", "Loader");
+            hotReload = false;
+        }
+        // Reloadable mods get class loaders of their own instead.
+        if (!fabric && !hotReload) {
+            start = System.nanoTime();
+            Set<Path> classPath = new HashSet<>();
+            for (String entry : System.getProperty("java.class.path", "").split(File.pathSeparator)) {
+                if (!entry.isEmpty()) classPath.add(Paths.get(entry).toAbsolutePath().normalize());
+            }
+            List<URL> urls = new ArrayList<>();
+            for (URL url : modUrls) {
+                // Mods already on the class path (for example to get them into a class archive) are loaded from there.
+                if (!classPath.contains(Paths.get(url.getFile()).toAbsolutePath().normalize())) urls.add(url);
+            }
+            try {
+                modLoader = new ModClassLoader(urls, Loader.class.getClassLoader());
+                HandlerLinker.setModLoader(modLoader);
+            } catch (IOException e) {
+                System.err.println("Failed to index mod JARs");
+                e.printStackTrace();
+            }
+            LoaderEvents.phase("indexMods", start);
+        }
+        registerInjections(fabric);
+        Patcher.excludePatchedTargets();
+        CdsArchive.configure();
+        if (injectionPoints.isEmpty() && !hotReload) {
+            Logger.info("All injections are pre-applied, transformer is not needed", "Loader");
+        } else {
+            addTransformer();
+            if (hotReload) HotReload.watch(Paths.get(System.getProperty("loader.mods", "mods")));
+        }
+        // After the transformer, initializers may load game classes.
+        start = System.nanoTime();
+        try {
+            initializeMods(fabric, bundler);
+        } catch (IllegalStateException e) {
+            Logger.error(e.getMessage(), "Loader");
+            Logger.flush();
+            System.exit(2);
+        }
+        LoaderEvents.phase("initializeMods", start);
+    }
+
+    /**
+     * @param bundler the game is a bundled dedicated server, see {@link #hasBundler()}
+     */
+    static void initializeMods(boolean fabric, boolean bundler) {
+        if (fabric || bundler) {
+            // Knot and the bundler load the mod classes again later, initializing them now would leave the game with
+            // a second copy.
+            if (mods.stream().anyMatch(mod -> !mod.entrypoints.isEmpty())) {
+                Logger.warn("Mod entrypoints are not supported with " + (fabric ? "Fabric" : "the bundled server"),
+                        "Loader");
+            }
+            return;
+        }
+        Entrypoints.run(mods, mod -> hotReload && mod.jarPath != null ? HotReload.loaders.get(mod.jarPath)
+                : modLoader != null ? modLoader : Loader.class.getClassLoader());
+    }
+
+    static void registerInjections(boolean fabric) {
         processInjectionClass("io/github/freehij/injections/VanillaServerPathFixer",
                 Thread.currentThread().getContextClassLoader());
-        if (hasFabric()) {
+        if (fabric) {
             processInjectionClass("io/github/freehij/injections/KnotClassPathFixer",
                     Thread.currentThread().getContextClassLoader());
-        } else {
-            for (URL url : modUrls) {
-                try {
-                    inst.appendToSystemClassLoaderSearch(new JarFile(url.getFile()));
-                } catch (IOException e) {
-                    System.err.println("Failed to add mod JAR to System ClassLoader search path: " + url);
-                    e.printStackTrace();
-                }
-            }
         }
-        scanInjections();
+        if (ServerTickProfiler.ENABLED) {
+            processInjectionClass("io/github/freehij/injections/ServerTickProfiler",
+                    Thread.currentThread().getContextClassLoader());
+        }
+        long start = System.nanoTime();
+        // Without Fabric the targets can't see mod classes, the game loads them itself only with Fabric.
+        scanInjections(!fabric);
+        LoaderEvents.phase("scanInjections", start);
+        if (GameIndex.pruned.get() > 0) {
+            Logger.info("Pruned " + GameIndex.pruned.get() + " injection points the game classes can't satisfy", "Loader");
+        }
+        registerDrains();
+        start = System.nanoTime();
         for (List<InjectionPoint> injectionPoints : injectionPoints.values()) {
             injectionPoints.sort(Comparator.comparingInt(p -> p.inject.priority()));
         }
-        inst.addTransformer(new Transformer(), true);
+        LoaderEvents.phase("sortInjections", start);
+    }
+
+    // The drain points for thread-confined handlers only cost a call per tick, but there is no need for them at all
+    // unless some mod asks for an affinity.
+    static void registerDrains() {
+        Set<ThreadAffinity> used = EnumSet.noneOf(ThreadAffinity.class);
+        for (List<InjectionPoint> points : injectionPoints.values()) {
+            for (InjectionPoint point : points) {
+                if (!point.async) used.add(point.affinity);
+            }
+        }
+        if (used.contains(ThreadAffinity.SERVER)) {
+            processInjectionClass("io/github/freehij/injections/ServerThreadDrain",
+                    Thread.currentThread().getContextClassLoader());
+        }
+        if (used.contains(ThreadAffinity.CLIENT)) {
+            processInjectionClass("io/github/freehij/injections/ClientThreadDrain",
+                    Thread.currentThread().getContextClassLoader());
+        }
     }
 
     static boolean hasFabric() {
@@ -69,6 +173,12 @@ public class Loader {
         return false;
     }
 
+    // The bundled dedicated server unpacks the game and starts it in a class loader of its own, which gets its own
+    // copy of the loader and the mods. Looked up as a resource, loading the class now would skip its injection.
+    static boolean hasBundler() {
+        return ClassLoader.getSystemClassLoader().getResource("net/minecraft/bundler/Main.class") != null;
+    }
+
     static void defineMods(boolean log) {
         mods.add(new ModInfo(
                 "loader",
@@ -78,9 +188,13 @@ public class Loader {
                 "Synthetic loader modid for dependency checking.",
                 "No license",
                 new ArrayList<>(),
+                new ArrayList<>(),
+                new ArrayList<>(),
                 null
         ));
+        long start = System.nanoTime();
         loadMods();
+        LoaderEvents.phase("loadMods", start);
         if (log) {
             Logger.info("Found mods:", "Loader");
             for (ModInfo mod : mods) {
@@ -91,33 +205,17 @@ public class Loader {
 
     static void loadMods() {
         try {
-            Path modsDir = Paths.get("mods");
+            Path modsDir = Paths.get(System.getProperty("loader.mods", "mods"));
             if (!Files.exists(modsDir)) {
                 Files.createDirectories(modsDir);
             }
 
             try (DirectoryStream<Path> stream = Files.newDirectoryStream(modsDir, "*.{jar,zip}")) {
                 for (Path jarPath : stream) {
-                    try (JarFile jar = new JarFile(jarPath.toFile())) {
-                        JarEntry config = jar.getJarEntry("mod.properties");
-                        if (config == null) continue;
-
-                        Properties props = new Properties();
-                        props.load(jar.getInputStream(config));
-
-                        ModInfo mod = new ModInfo(
-                                props.getProperty("modid"),
-                                props.getProperty("name"),
-                                props.getProperty("version"),
-                                props.getProperty("creator"),
-                                props.getProperty("description", "No description"),
-                                props.getProperty("license", "No license"),
-                                Arrays.asList(props.getProperty("injections", "").split(",")),
-                                jarPath
-                        );
-                        mods.add(mod);
-                        modUrls.add(jarPath.toUri().toURL());
-                    }
+                    ModInfo mod = readMod(jarPath);
+                    if (mod == null) continue;
+                    mods.add(mod);
+                    modUrls.add(jarPath.toUri().toURL());
                 }
             }
         } catch (IOException e) {
@@ -125,434 +223,431 @@ public class Loader {
         }
     }
 
-    static void scanInjections() {
-        URL[] urls = modUrls.toArray(new URL[0]);
-        try (URLClassLoader modLoader = new URLClassLoader(urls, Thread.currentThread().getContextClassLoader())) {
+    /**
+     * @return the mod described by the jar's mod.properties, or null if it has none
+     */
+    static ModInfo readMod(Path jarPath) throws IOException {
+        try (JarFile jar = new JarFile(jarPath.toFile())) {
+            JarEntry config = jar.getJarEntry("mod.properties");
+            if (config == null) return null;
+
+            Properties props = new Properties();
+            props.load(jar.getInputStream(config));
+
+            return new ModInfo(
+                    props.getProperty("modid"),
+                    props.getProperty("name"),
+                    props.getProperty("version"),
+                    props.getProperty("creator"),
+                    props.getProperty("description", "No description"),
+                    props.getProperty("license", "No license"),
+                    Arrays.asList(props.getProperty("injections", "").split(",")),
+                    list(props.getProperty("entrypoints", "")),
+                    list(props.getProperty("depends", "")),
+                    jarPath
+            );
+        }
+    }
+
+    static List<String> list(String value) {
+        List<String> list = new ArrayList<>();
+        for (String entry : value.split(",")) {
+            if (!entry.isBlank()) list.add(entry.trim());
+        }
+        return list;
+    }
+
+    static void scanInjections(boolean linked) {
+        if (hotReload) {
             for (ModInfo mod : mods) {
-                for (String className : mod.injections) {
-                    if (className.isEmpty()) continue;
-                    processInjectionClass(className, modLoader);
-                }
+                if (mod.jarPath != null) HotReload.load(mod, injectionPoints);
             }
+            return;
+        }
+        if (modLoader != null) {
+            scanInjections(modLoader, linked);
+            return;
+        }
+        URL[] urls = modUrls.toArray(new URL[0]);
+        try (URLClassLoader scanLoader = new URLClassLoader(urls, Thread.currentThread().getContextClassLoader())) {
+            scanInjections(scanLoader, linked);
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
-    static void processInjectionClass(String className, ClassLoader loader) {
-        AnnotationParser.ParsedClass parsed = AnnotationParser.parseClassForInjections(className, loader);
-        if (parsed.editClassTarget == null) return;
-
-        for (String targetClassName : parsed.editClassTarget) {
-            for (AnnotationParser.ParsedMethod method : parsed.methods) {
-                injectionPoints.computeIfAbsent(targetClassName, k -> new ArrayList<>())
-                        .add(new InjectionPoint(
-                                method.inject,
-                                targetClassName,
-                                className,
-                                method.name
-                        ));
+    static void scanInjections(ClassLoader loader, boolean linked) {
+        for (ModInfo mod : mods) {
+            for (String className : mod.injections) {
+                if (className.isEmpty()) continue;
+                processInjectionClass(className, loader, mod.id, mod.jarPath, linked, injectionPoints);
             }
         }
     }
 
-    public static List<URL> getModUrls() {
-        return Collections.unmodifiableList(modUrls);
+    static void processInjectionClass(String className, ClassLoader loader) {
+        processInjectionClass(className, loader, "loader", false, injectionPoints);
     }
 
-    public static List<ModInfo> getMods() {
-        // TODO: proper fix for evil knot conflicts
-        if (mods.isEmpty()) defineMods(false);
-        return Collections.unmodifiableList(mods);
+    /**
+     * @param linked call the handlers through {@link io.github.freehij.loader.util.HandlerLinker}, their class loader
+     *               is not visible from the targets or they may be replaced
+     */
+    static void processInjectionClass(String className, ClassLoader loader, String modId, boolean linked,
+                                      Map<String, List<InjectionPoint>> into) {
+        processInjectionClass(className, loader, modId, null, linked, into);
     }
 
-    public record ModInfo(String id, String name, String version, String creator,
-                          String description, String license, List<String> injections, Path jarPath) {
-        @Override
-        public String toString() {
-            return name + " (" + id + ") " + version + " by " + creator;
+    /**
+     * @param jar the mod jar the injection class comes from, null if it isn't reloaded from one
+     */
+    static void processInjectionClass(String className, ClassLoader loader, String modId, Path jar, boolean linked,
+                                      Map<String, List<InjectionPoint>> into) {
+        AnnotationParser.ParsedClass parsed = AnnotationParser.parseClassForInjections(className, loader);
+        if (parsed.editClassTarget == null) return;
+        if (!Conditions.test(parsed.conditions)) {
+            Logger.debug("Skipping " + className + ", its conditions don't hold", "Loader");
+            return;
         }
-    }
 
-    static class InjectionPoint {
-        final Inject inject;
-        final String targetClass, handlerClass, handlerMethod;
-        public boolean satisfied = false;
+        List<AnnotationParser.ParsedMethod> methods = new ArrayList<>();
+        for (AnnotationParser.ParsedMethod method : parsed.methods) {
+            if (Conditions.test(method.inject.conditions())) {
+                methods.add(method);
+            } else {
+                Logger.debug("Skipping " + className + " -> " + method.name + ", its conditions don't hold", "Loader");
+            }
+        }
 
-        public InjectionPoint(Inject inject, String targetClass, String handlerClass, String handlerMethod) {
-            this.inject = inject;
-            this.targetClass = targetClass;
-            this.handlerClass = handlerClass;
-            this.handlerMethod = handlerMethod;
+        // The scanning class loader may be closed afterwards, so inlined handlers are read now. Handlers that may be
+        // replaced are not inlined, their targets would have to be retransformed on every change.
+        Map<String, HandlerInliner.Body> inlined = new HashMap<>();
+        ClassNode handlerNode = null;
+        boolean replaceable = isReplaceable(modId, linked);
+        for (AnnotationParser.ParsedMethod method : methods) {
+            Inject inject = method.inject;
+            if (replaceable || !inject.inline() || inject.async() || inject.affinity() != ThreadAffinity.ANY) continue;
+            if (handlerNode == null) handlerNode = HandlerInliner.read(className, loader);
+            if (handlerNode != null) {
+                inlined.put(method.name, HandlerInliner.analyze(handlerNode, method.name, !linked));
+            }
         }
 
-        @Override
-        public String toString() {
-            return handlerClass + " -> " + handlerMethod;
+        Set<String> targets = new LinkedHashSet<>(Arrays.asList(parsed.editClassTarget));
+        GameIndex index = GameIndex.VALIDATE || parsed.subclassesOf.length > 0 ? GameIndex.get() : GameIndex.index;
+        Set<String> matched = new HashSet<>();
+        for (String type : parsed.subclassesOf) {
+            Set<String> subtypes = index == null ? Set.of() : index.subtypesOf(type);
+            if (subtypes.isEmpty()) {
+                Logger.warn(className + " targets subclasses of " + type + ", but the game has none", "Loader");
+            }
+            for (String subtype : subtypes) {
+                if (!targets.contains(subtype)) matched.add(subtype);
+            }
+            targets.addAll(subtypes);
+        }
+
+        for (String targetClassName : targets) {
+            for (AnnotationParser.ParsedMethod method : methods) {
+                InjectionPoint point = new InjectionPoint(
+                        method.inject,
+                        targetClassName,
+                        className,
+                        method.name,
+                        modId,
+                        jar,
+                        linked
+                );
+                // Subclasses that don't declare the method are expected, named targets must have it.
+                String problem = index == null ? null : index.check(point);
+                if (problem != null) {
+                    if (matched.contains(targetClassName)) continue;
+                    GameIndex.pruned.incrementAndGet();
+                    Logger.debug("Pruning " + point + ", " + problem, "Loader");
+                    unsatisfied(point, problem);
+                    continue;
+                }
+                point.inline = inlined.get(method.name);
+                into.computeIfAbsent(targetClassName, k -> new ArrayList<>()).add(point);
+            }
         }
     }
 
-    static class Transformer implements ClassFileTransformer {
-        @Override
-        public byte[] transform(ClassLoader l, String className, Class<?> c, ProtectionDomain d, byte[] buffer) {
-            if (!injectionPoints.containsKey(className)) return null;
-            Logger.debug("Loading " + className + ", loader: " + l.getName(), this);
-            ClassReader cr = new ClassReader(buffer);
-            ClassWriter cw = new ClassWriter(cr, ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
-            cr.accept(new InjectionClassVisitor(cw, className), 0);
-            return cw.toByteArray();
+    /**
+     * Reports an injection point that can't be applied as its {@link io.github.freehij.loader.constant.FailStrategy}
+     * asks.
+     */
+    static void unsatisfied(InjectionPoint point, String reason) {
+        FailStrategy failStrategy = point.inject.failStrategy();
+        if (failStrategy.ordinal() > 0) {
+            Logger.flush();
+            new NoSuchMethodException("Couldn't find a method required to satisfy " + point + ": " + reason)
+                    .printStackTrace(Logger.STDOUT);
+            if (failStrategy == FailStrategy.HARD) System.exit(2);
         }
     }
 
-    static class InjectionClassVisitor extends ClassVisitor {
-        final String className;
-        final List<InjectionPoint> points;
+    // Handlers of hot reloadable mods and of classes registered at runtime, fixed handlers are only linked because
+    // the targets can't see them.
+    static boolean isReplaceable(String modId, boolean linked) {
+        return linked && (hotReload || Registrations.MOD_ID.equals(modId));
+    }
 
-        InjectionClassVisitor(ClassVisitor cv, String className) {
-            super(Opcodes.ASM9, cv);
-            this.className = className;
-            points = injectionPoints.get(className);
+    /**
+     * Replaces the points matching {@code replaced} with {@code added}, keeping the ones that did not change: their
+     * ids are compiled into targets that are not retransformed.
+     *
+     * @return the targets whose injections changed
+     */
+    static synchronized Set<String> replaceInjections(Predicate<InjectionPoint> replaced,
+                                                      Map<String, List<InjectionPoint>> added) {
+        Set<String> targets = new HashSet<>(added.keySet());
+        for (Map.Entry<String, List<InjectionPoint>> entry : injectionPoints.entrySet()) {
+            for (InjectionPoint point : entry.getValue()) {
+                if (replaced.test(point)) targets.add(entry.getKey());
+            }
         }
-
-        @Override
-        public MethodVisitor visitMethod(int access, String name, String desc, String sig, String[] ex) {
-            MethodVisitor mv = super.visitMethod(access, name, desc, sig, ex);
-            if (points == null) return mv;
-            for (InjectionPoint point : points) {
-                if (Arrays.asList(point.inject.method()).contains(name) &&
-                        (point.inject.descriptor().isEmpty() || point.inject.descriptor().equals(desc))) {
-                    Logger.debug("Transforming " + name + desc +
-                            ", handler: " + point.handlerClass + "." + point.handlerMethod, this);
-                    point.satisfied = true;
-                    mv = new InjectionMethodVisitor(mv, access, desc, point, this.className);
+        Set<String> changed = new HashSet<>();
+        for (String target : targets) {
+            List<InjectionPoint> next = new ArrayList<>();
+            List<InjectionPoint> previous = new ArrayList<>();
+            for (InjectionPoint point : injectionPoints.getOrDefault(target, List.of())) {
+                if (replaced.test(point)) {
+                    previous.add(point);
+                } else {
+                    next.add(point);
                 }
             }
-            return mv;
+            for (InjectionPoint point : added.getOrDefault(target, List.of())) {
+                InjectionPoint kept = null;
+                for (InjectionPoint candidate : previous) {
+                    if (candidate.sameAs(point)) {
+                        kept = candidate;
+                        break;
+                    }
+                }
+                if (kept == null) {
+                    changed.add(target);
+                    next.add(point);
+                } else {
+                    previous.remove(kept);
+                    next.add(kept);
+                }
+            }
+            if (!previous.isEmpty()) changed.add(target);
+            next.sort(Comparator.comparingInt(p -> p.inject.priority()));
+            if (next.isEmpty()) {
+                injectionPoints.remove(target);
+            } else {
+                injectionPoints.put(target, next);
+            }
         }
+        return changed;
+    }
 
-        @Override
-        public void visitEnd() {
-            for (InjectionPoint point : points) {
-                if (point.satisfied) continue;
-                FailStrategy failStrategy = point.inject.failStrategy();
-                if (failStrategy.ordinal() > 0) {
-                    new NoSuchMethodException("Couldn't find a method required to satisfy " + point)
-                            .printStackTrace(Logger.STDOUT);
-                    if (failStrategy == FailStrategy.HARD) System.exit(2);
-                }
+    /**
+     * Retransforms every loaded class of the given targets in one batch.
+     */
+    static void retransform(Set<String> targets) {
+        if (targets.isEmpty()) return;
+        Instrumentation inst = instrumentation;
+        List<Class<?>> classes = new ArrayList<>();
+        for (Class<?> loaded : inst.getAllLoadedClasses()) {
+            if (targets.contains(loaded.getName().replace('.', '/')) && inst.isModifiableClass(loaded)) {
+                classes.add(loaded);
+            }
+        }
+        if (classes.isEmpty()) return;
+        long start = System.nanoTime();
+        try {
+            inst.retransformClasses(classes.toArray(new Class<?>[0]));
+            Logger.info("Retransformed " + classes.size() + " classes in " +
+                    (System.nanoTime() - start) / 1_000_000 + " ms", "Loader");
+            return;
+        } catch (UnmodifiableClassException | RuntimeException | LinkageError e) {
+            Logger.warn("Retransforming " + classes.size() + " classes at once failed (" + e +
+                    "), retrying them one by one", "Loader");
+        }
+        int failed = 0;
+        for (Class<?> target : classes) {
+            try {
+                inst.retransformClasses(target);
+            } catch (UnmodifiableClassException | RuntimeException | LinkageError e) {
+                failed++;
+                Logger.error("Failed to retransform " + target.getName() + ", it keeps its old injections until a " +
+                        "restart: " + e, "Loader");
             }
         }
+        Logger.info("Retransformed " + (classes.size() - failed) + " of " + classes.size() + " classes in " +
+                (System.nanoTime() - start) / 1_000_000 + " ms", "Loader");
     }
 
-    static class InjectionMethodVisitor extends MethodVisitor {
-        final InjectionPoint injection;
-        final int methodAccess;
-        final String methodDesc, className;
-        boolean hasReturned, inInjection;
-        int localStoreCount, fieldStoreCount, invokeCount, localLoadCount, fieldLoadCount;
+    static synchronized void addTransformer() {
+        if (transformer != null) return;
+        transformer = new Transformer();
+        instrumentation.addTransformer(transformer, true);
+    }
 
-        InjectionMethodVisitor(MethodVisitor mv, int access, String desc, InjectionPoint injection, String className) {
-            super(Opcodes.ASM9, mv);
-            this.injection = injection;
-            methodAccess = access;
-            methodDesc = desc;
-            this.className = className;
-        }
+    public static List<URL> getModUrls() {
+        return Collections.unmodifiableList(modUrls);
+    }
 
-        @Override
-        public void visitCode() {
-            super.visitCode();
-            if (injection.inject.at() == At.HEAD) injectHelper();
-        }
+    /**
+     * Switches an injection ({@code handler class -> method}, as logged) or all injections of a handler class off or
+     * back on, without retransforming.
+     */
+    public static void setInjectionEnabled(String injection, boolean enabled) {
+        InjectionToggles.set(injection, enabled);
+    }
 
-        @Override
-        public void visitInsn(int opcode) {
-            if (inInjection) {
-                super.visitInsn(opcode);
-                return;
-            }
-            if (injection.inject.at() == At.RETURN && isReturn(opcode)) {
-                injectHelper();
-                super.visitInsn(opcode);
-                hasReturned = true;
-            } else {
-                super.visitInsn(opcode);
-                if (isReturn(opcode)) hasReturned = true;
-            }
-        }
+    public static void setModEnabled(String modId, boolean enabled) {
+        InjectionToggles.setMod(modId, enabled);
+    }
 
-        @Override
-        public void visitVarInsn(int opcode, int var) {
-            if (inInjection) {
-                super.visitVarInsn(opcode, var);
-                return;
-            }
-            boolean isStore = opcode >= Opcodes.ISTORE && opcode <= Opcodes.ASTORE;
-            boolean isLoad  = opcode >= Opcodes.ILOAD  && opcode <= Opcodes.ALOAD;
-            if (isStore) {
-                handleInjection(AdvancedAt.At.ASSIGN_LOCAL, localStoreCount,
-                        adv -> adv.optional().isBlank() || var == Integer.parseInt(adv.optional().trim()),
-                        () -> super.visitVarInsn(opcode, var));
-                localStoreCount++;
-            } else if (isLoad) {
-                handleInjection(AdvancedAt.At.FETCH_LOCAL, localLoadCount,
-                        adv -> adv.optional().isBlank() || var == Integer.parseInt(adv.optional().trim()),
-                        () -> super.visitVarInsn(opcode, var));
-                localLoadCount++;
-            } else {
-                super.visitVarInsn(opcode, var);
-            }
-        }
+    /**
+     * Adds the injections of an {@code @EditClass} class after startup, its handlers are called through
+     * {@link io.github.freehij.loader.util.HandlerLinker} so {@code loader} doesn't have to be visible from the targets.
+     * Changes are applied in batches, see {@link Registrations}.
+     *
+     * @return completes once the batch is applied and its loaded targets are retransformed
+     */
+    public static CompletableFuture<Void> registerInjectionClass(String className, ClassLoader loader) {
+        return Registrations.submit(className, Objects.requireNonNull(loader));
+    }
 
-        @Override
-        public void visitFieldInsn(int opcode, String owner, String name, String descriptor) {
-            if (inInjection) {
-                super.visitFieldInsn(opcode, owner, name, descriptor);
-                return;
-            }
-            boolean isPut = opcode == Opcodes.PUTFIELD || opcode == Opcodes.PUTSTATIC;
-            boolean isGet = opcode == Opcodes.GETFIELD || opcode == Opcodes.GETSTATIC;
-            if (isPut) {
-                handleInjection(AdvancedAt.At.ASSIGN_FIELD, fieldStoreCount,
-                        adv -> adv.optional().isBlank() || name.equals(adv.optional().trim()),
-                        () -> super.visitFieldInsn(opcode, owner, name, descriptor));
-                fieldStoreCount++;
-            } else if (isGet) {
-                handleInjection(AdvancedAt.At.FETCH_FIELD, fieldLoadCount,
-                        adv -> adv.optional().isBlank() || name.equals(adv.optional().trim()),
-                        () -> super.visitFieldInsn(opcode, owner, name, descriptor));
-                fieldLoadCount++;
-            } else {
-                super.visitFieldInsn(opcode, owner, name, descriptor);
-            }
-        }
+    /**
+     * Removes the injections of a class added with {@link #registerInjectionClass}.
+     */
+    public static CompletableFuture<Void> unregisterInjectionClass(String className) {
+        return Registrations.submit(className, null);
+    }
 
-        @Override
-        public void visitMethodInsn(int opcode, String owner, String name, String descriptor, boolean isInterface) {
-            if (inInjection) {
-                super.visitMethodInsn(opcode, owner, name, descriptor, isInterface);
+    /**
+     * Loads the current version of a mod's jar into a new class loader and retransforms every class whose
+     * injections changed, see {@link HotReload}. Only available with -Dloader.hotReload=true.
+     */
+    public static void reloadMod(String modId) {
+        if (!hotReload) throw new IllegalStateException("Hot reloading is disabled");
+        for (ModInfo mod : mods) {
+            if (modId.equals(mod.id) && mod.jarPath != null) {
+                HotReload.reload(mod.jarPath);
                 return;
             }
-            if (opcode >= Opcodes.INVOKEVIRTUAL && opcode <= Opcodes.INVOKEDYNAMIC) {
-                handleInjection(AdvancedAt.At.INVOKE, invokeCount,
-                        adv -> adv.optional().isBlank() || matchesMethod(adv.optional().trim(), owner, name,
-                                descriptor),
-                        () -> super.visitMethodInsn(opcode, owner, name, descriptor, isInterface));
-                invokeCount++;
-            } else {
-                super.visitMethodInsn(opcode, owner, name, descriptor, isInterface);
-            }
         }
+        throw new IllegalArgumentException("Unknown mod " + modId);
+    }
 
-        @Override
-        public void visitEnd() {
-            if (injection.inject.at() == At.TAIL && !hasReturned) injectHelper();
-            super.visitEnd();
-        }
+    /**
+     * Waits until all mod entrypoints have run, only needed with -Dloader.init.async=true.
+     */
+    public static void awaitModInitialization() {
+        Entrypoints.await();
+    }
+
+    public static List<ModInfo> getMods() {
+        // TODO: proper fix for evil knot conflicts
+        if (mods.isEmpty()) defineMods(false);
+        return Collections.unmodifiableList(mods);
+    }
 
+    public record ModInfo(String id, String name, String version, String creator,
+                          String description, String license, List<String> injections, List<String> entrypoints,
+                          List<String> depends, Path jarPath) {
         @Override
-        public void visitMaxs(int maxStack, int maxLocals) {
-            super.visitMaxs(Math.max(maxStack, 10), Math.max(maxLocals, 101));
+        public String toString() {
+            return name + " (" + id + ") " + version + " by " + creator;
         }
+    }
 
-        void handleInjection(AdvancedAt.At type, int currentCount, Predicate<AdvancedAt> extraMatcher,
-                             Runnable instruction) {
-            processInjections(type, currentCount, extraMatcher, true);
-            instruction.run();
-            processInjections(type, currentCount, extraMatcher, false);
+    @SuppressWarnings("deprecation")
+    static class InjectionPoint {
+        // Points are created on the registration and hot reload threads too.
+        static final AtomicInteger nextId = new AtomicInteger();
+        final int id = nextId.getAndIncrement();
+        final Inject inject;
+        final String targetClass, handlerClass, handlerMethod, modId;
+        // The hot reloaded jar the point belongs to, mods don't need a modid.
+        final Path jar;
+        // Resolved once, the annotation proxy is far too slow to query per visited instruction.
+        final Set<String> methods;
+        final String descriptor;
+        final At at;
+        final AdvancedAt[] advancedAt;
+        final boolean async;
+        final ThreadAffinity affinity;
+        // Called through HandlerLinker, replaceable ones through a call site that can be relinked.
+        final boolean linked, replaceable;
+        HandlerInliner.Body inline;
+        public boolean satisfied = false;
+
+        public InjectionPoint(Inject inject, String targetClass, String handlerClass, String handlerMethod) {
+            this(inject, targetClass, handlerClass, handlerMethod, "loader", false);
         }
 
-        void processInjections(AdvancedAt.At type, int currentCount, Predicate<AdvancedAt> extraMatcher,
-                               boolean before) {
-            Shift targetShift = before ? Shift.BEFORE : Shift.AFTER;
-            for (AdvancedAt adv : injection.inject.advancedAt()) {
-                if (adv.at() == type && adv.shift() == targetShift) {
-                    if ((adv.ordinal() == -1 || adv.ordinal() == currentCount) && extraMatcher.test(adv)) {
-                        injectHelper();
-                    }
-                }
-            }
+        public InjectionPoint(Inject inject, String targetClass, String handlerClass, String handlerMethod,
+                              String modId, boolean linked) {
+            this(inject, targetClass, handlerClass, handlerMethod, modId, null, linked);
         }
 
-        boolean matchesMethod(String pattern, String owner, String name, String descriptor) {
-            String[] parts = pattern.split(";");
-            if (parts.length == 2) return owner.equals(parts[0]) && name.equals(parts[1]);
-            return (owner + ";" + name + descriptor).equals(pattern);
+        InjectionPoint(Inject inject, String targetClass, String handlerClass, String handlerMethod, String modId,
+                       Path jar, boolean linked) {
+            this.jar = jar;
+            this.inject = inject;
+            this.targetClass = targetClass;
+            this.handlerClass = handlerClass;
+            this.handlerMethod = handlerMethod;
+            this.modId = modId;
+            this.linked = linked;
+            replaceable = isReplaceable(modId, linked);
+            methods = new HashSet<>(Arrays.asList(inject.method()));
+            descriptor = inject.descriptor();
+            at = inject.at();
+            advancedAt = inject.advancedAt();
+            async = inject.async() && inject.argMode() != ArgMode.FETCH_APPLY && !inject.modifyLocals();
+            affinity = inject.affinity();
+            if (inject.async() && !async) {
+                Logger.warn(this + " writes back arguments or locals, calling it synchronously", "Loader");
+            }
         }
 
-        boolean isReturn(int opcode) {
-            return opcode >= Opcodes.IRETURN && opcode <= Opcodes.RETURN;
+        boolean sameAs(InjectionPoint other) {
+            return Objects.equals(modId, other.modId) && Objects.equals(jar, other.jar) && targetClass.equals(other.targetClass) &&
+                    handlerClass.equals(other.handlerClass) && handlerMethod.equals(other.handlerMethod) &&
+                    inject.equals(other.inject);
         }
 
-        void injectHelper() {
-            if (inInjection) return;
-            inInjection = true;
-            generateHelperCall(this, methodAccess, methodDesc, injection, className);
-            inInjection = false;
+        @Override
+        public String toString() {
+            return handlerClass + " -> " + handlerMethod;
         }
     }
 
-    static void generateHelperCall(MethodVisitor mv, int access, String desc, InjectionPoint injection,
-                                   String className) {
-        boolean isStatic = (access & Opcodes.ACC_STATIC) != 0;
-
-        mv.visitTypeInsn(Opcodes.NEW, "io/github/freehij/loader/util/InjectionHelper");
-        mv.visitInsn(Opcodes.DUP);
-        if (isStatic) {
-            mv.visitInsn(Opcodes.ACONST_NULL);
-        } else {
-            mv.visitVarInsn(Opcodes.ALOAD, 0);
-        }
-        mv.visitLdcInsn(Type.getObjectType(className));
-        Type[] argTypes = Type.getArgumentTypes(desc);
-        if (argTypes.length > 0 &&
-                (injection.inject.argMode() == ArgMode.FETCH || injection.inject.argMode() == ArgMode.FETCH_APPLY)) {
-            mv.visitIntInsn(Opcodes.BIPUSH, argTypes.length);
-            mv.visitTypeInsn(Opcodes.ANEWARRAY, "java/lang/Object");
-            int localIndex = isStatic ? 0 : 1;
-            for (int i = 0; i < argTypes.length; i++) {
-                mv.visitInsn(Opcodes.DUP);
-                mv.visitIntInsn(Opcodes.BIPUSH, i);
-                mv.visitVarInsn(argTypes[i].getOpcode(Opcodes.ILOAD), localIndex);
-                boxElement(mv, argTypes[i]);
-                mv.visitInsn(Opcodes.AASTORE);
-                localIndex += argTypes[i].getSize();
-            }
-        } else {
-            mv.visitInsn(Opcodes.ACONST_NULL);
-        }
-
-        Local[] locals = injection.inject.locals();
-        if (locals.length > 0) {
-            mv.visitIntInsn(Opcodes.BIPUSH, locals.length);
-            mv.visitTypeInsn(Opcodes.ANEWARRAY, "java/lang/Object");
-            for (int i = 0; i < locals.length; i++) {
-                Local local = locals[i];
-                mv.visitInsn(Opcodes.DUP);
-                mv.visitIntInsn(Opcodes.BIPUSH, i);
-                Type localType = Type.getType(local.type());
-                mv.visitVarInsn(localType.getOpcode(Opcodes.ILOAD), local.index());
-                boxElement(mv, localType);
-                mv.visitInsn(Opcodes.AASTORE);
-            }
-        } else {
-            mv.visitInsn(Opcodes.ACONST_NULL);
-        }
-        mv.visitMethodInsn(Opcodes.INVOKESPECIAL,
-                "io/github/freehij/loader/util/InjectionHelper",
-                "<init>",
-                "(Ljava/lang/Object;Ljava/lang/Class;[Ljava/lang/Object;[Ljava/lang/Object;)V",
-                false);
-
-        mv.visitVarInsn(Opcodes.ASTORE, 100);
-        mv.visitVarInsn(Opcodes.ALOAD, 100);
-        mv.visitMethodInsn(Opcodes.INVOKESTATIC,
-                injection.handlerClass,
-                injection.handlerMethod,
-                "(Lio/github/freehij/loader/util/InjectionHelper;)V",
-                false);
-
-        if (argTypes.length > 0 && injection.inject.argMode() == ArgMode.FETCH_APPLY) {
-            mv.visitVarInsn(Opcodes.ALOAD, 100);
-            mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL,
-                    "io/github/freehij/loader/util/InjectionHelper",
-                    "getArgs",
-                    "()[Ljava/lang/Object;",
-                    false);
-            int localIndex = isStatic ? 0 : 1;
-            for (int i = 0; i < argTypes.length; i++) {
-                Type argType = argTypes[i];
-                mv.visitInsn(Opcodes.DUP);
-                mv.visitIntInsn(Opcodes.BIPUSH, i);
-                mv.visitInsn(Opcodes.AALOAD);
-                if (argType.getSort() <= Type.DOUBLE) {
-                    unbox(mv, argType);
-                } else {
-                    mv.visitTypeInsn(Opcodes.CHECKCAST, argType.getInternalName());
-                }
-                mv.visitVarInsn(argType.getOpcode(Opcodes.ISTORE), localIndex);
-                localIndex += argType.getSize();
+    static class Transformer implements ClassFileTransformer {
+        @Override
+        public byte[] transform(ClassLoader l, String className, Class<?> c, ProtectionDomain d, byte[] buffer) {
+            if (!injectionPoints.containsKey(className)) return null;
+            if (Logger.isDebug()) {
+                Logger.debug("Loading " + className + ", loader: " + (l == null ? "bootstrap" : l.getName()), this);
             }
-            mv.visitInsn(Opcodes.POP);
-        }
-
-        if (injection.inject.modifyLocals() && locals.length > 0) {
-            mv.visitVarInsn(Opcodes.ALOAD, 100);
-            mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL,
-                    "io/github/freehij/loader/util/InjectionHelper",
-                    "getLocals",
-                    "()[Ljava/lang/Object;",
-                    false);
-            for (int i = 0; i < locals.length; i++) {
-                Local local = locals[i];
-                Type localType = Type.getType(local.type());
-                mv.visitInsn(Opcodes.DUP);
-                mv.visitIntInsn(Opcodes.BIPUSH, i);
-                mv.visitInsn(Opcodes.AALOAD);
-                if (localType.getSort() <= Type.DOUBLE) {
-                    unbox(mv, localType);
-                } else {
-                    mv.visitTypeInsn(Opcodes.CHECKCAST, localType.getInternalName());
-                }
-                mv.visitVarInsn(localType.getOpcode(Opcodes.ISTORE), local.index());
+            LoaderEvents.Transform event = LoaderEvents.transformStarted();
+            byte[] result;
+            if (TransformStats.ENABLED) {
+                long allocated = TransformStats.allocatedBytes();
+                long start = System.nanoTime();
+                result = transformClass(className, buffer, null);
+                TransformStats.record(System.nanoTime() - start, TransformStats.allocatedBytes() - allocated,
+                        buffer.length, result.length);
+            } else {
+                result = transformClass(className, buffer, null);
             }
-            mv.visitInsn(Opcodes.POP);
+            if (event != null) LoaderEvents.transformDone(event, className, l, buffer.length, result.length);
+            return result;
         }
+    }
 
-        Label continueLabel = new Label();
-        mv.visitVarInsn(Opcodes.ALOAD, 100);
-        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL,
-                "io/github/freehij/loader/util/InjectionHelper", "isCancelled", "()Z", false);
-        mv.visitJumpInsn(Opcodes.IFEQ, continueLabel);
-
-        Type returnType = Type.getReturnType(desc);
-        if (returnType == Type.VOID_TYPE) {
-            mv.visitInsn(Opcodes.RETURN);
-        } else {
-            mv.visitVarInsn(Opcodes.ALOAD, 100);
-            mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL,
-                    "io/github/freehij/loader/util/InjectionHelper", "getReturnValue", "()Ljava/lang/Object;", false);
-            unbox(mv, returnType);
-            mv.visitInsn(returnType.getOpcode(Opcodes.IRETURN));
-        }
-
-        mv.visitLabel(continueLabel);
-        mv.visitFrame(Opcodes.F_SAME, 0, null, 0, null);
-    }
-
-    static void boxElement(MethodVisitor mv, Type type) {
-        switch (type.getSort()) {
-            case Type.BOOLEAN: box(mv, "java/lang/Boolean", "(Z)Ljava/lang/Boolean;"); break;
-            case Type.BYTE: box(mv, "java/lang/Byte", "(B)Ljava/lang/Byte;"); break;
-            case Type.CHAR: box(mv, "java/lang/Character", "(C)Ljava/lang/Character;"); break;
-            case Type.SHORT: box(mv, "java/lang/Short", "(S)Ljava/lang/Short;"); break;
-            case Type.INT: box(mv, "java/lang/Integer", "(I)Ljava/lang/Integer;"); break;
-            case Type.FLOAT: box(mv, "java/lang/Float", "(F)Ljava/lang/Float;"); break;
-            case Type.LONG: box(mv, "java/lang/Long", "(J)Ljava/lang/Long;"); break;
-            case Type.DOUBLE: box(mv, "java/lang/Double", "(D)Ljava/lang/Double;"); break;
-        }
-    }
-
-    static void box(MethodVisitor mv, String owner, String descriptor) {
-        mv.visitMethodInsn(Opcodes.INVOKESTATIC, owner, "valueOf", descriptor, false);
-    }
-
-    static void unbox(MethodVisitor mv, Type type) {
-        int sort = type.getSort();
-        if (sort >= Type.BOOLEAN && sort <= Type.DOUBLE) {
-            String[] wrappers = {
-                    "java/lang/Boolean", "java/lang/Byte", "java/lang/Character",
-                    "java/lang/Short", "java/lang/Integer", "java/lang/Float",
-                    "java/lang/Long", "java/lang/Double"
-            };
-            String[] methods = {"booleanValue", "byteValue", "charValue", "shortValue",
-                    "intValue", "floatValue", "longValue", "doubleValue"};
-            String[] descs = {"()Z", "()B", "()C", "()S", "()I", "()F", "()J", "()D"};
-            String wrapper = wrappers[sort - 1];
-            mv.visitTypeInsn(Opcodes.CHECKCAST, wrapper);
-            mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, wrapper, methods[sort - 1], descs[sort - 1], false);
-        } else if (sort == Type.ARRAY || sort == Type.OBJECT) {
-            mv.visitTypeInsn(Opcodes.CHECKCAST, type.getInternalName());
-        }
+    static byte[] transformClass(String className, byte[] buffer, ClassLoader frameLoader) {
+        byte[] result = backend.transform(className, buffer, frameLoader);
+        if (JitReport.ENABLED) JitReport.check(className, buffer, result);
+        return result;
     }
 }
\ No newline at end of file
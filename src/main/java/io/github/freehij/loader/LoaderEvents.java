@@ -0,0 +1,101 @@
+package io.github.freehij.loader;
+
+import jdk.jfr.*;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * JFR events for the loader itself, recorded alongside the JVM's own events by any running recording.
+ * <p>
+ * The first use of an event class brings up the whole JFR runtime (a few hundred ms), so nothing here touches one
+ * before the recorder was initialized, either by -XX:StartFlightRecording or by a later {@code jcmd JFR.start}.
+ */
+class LoaderEvents {
+    static final Map<String, Long> phases = new LinkedHashMap<>();
+    static boolean phasesRegistered;
+
+    static synchronized void phase(String phase, long start) {
+        phases.put(phase, System.nanoTime() - start);
+    }
+
+    static boolean recording() {
+        if (!FlightRecorder.isInitialized()) return false;
+        // Premain is over long before any recording starts, so the startup phases are re-emitted with every chunk.
+        synchronized (LoaderEvents.class) {
+            if (!phasesRegistered) {
+                phasesRegistered = true;
+                FlightRecorder.addPeriodicEvent(Phase.class, LoaderEvents::emitPhases);
+            }
+        }
+        return true;
+    }
+
+    static synchronized void emitPhases() {
+        for (Map.Entry<String, Long> phase : phases.entrySet()) {
+            Phase event = new Phase();
+            event.phase = phase.getKey();
+            event.time = phase.getValue();
+            event.commit();
+        }
+    }
+
+    static Transform transformStarted() {
+        if (!recording()) return null;
+        Transform event = new Transform();
+        event.begin();
+        return event;
+    }
+
+    static void transformDone(Transform event, String className, ClassLoader loader, int inputSize, int outputSize) {
+        event.end();
+        if (!event.shouldCommit()) return;
+        event.className = className;
+        event.classLoader = loader == null ? "bootstrap" :
+                loader.getName() != null ? loader.getName() : loader.getClass().getName();
+        event.inputSize = inputSize;
+        event.outputSize = outputSize;
+        for (Loader.InjectionPoint point : Loader.injectionPoints.getOrDefault(className, List.of())) {
+            if (point.satisfied) event.injections++;
+        }
+        event.commit();
+    }
+
+    @Name("io.github.freehij.loader.Phase")
+    @Label("Loader Phase")
+    @Category({"Mod Loader"})
+    @Period("everyChunk")
+    @StackTrace(false)
+    static class Phase extends Event {
+        @Label("Phase")
+        String phase;
+
+        @Label("Time")
+        @Timespan
+        long time;
+    }
+
+    @Name("io.github.freehij.loader.Transform")
+    @Label("Class Transform")
+    @Category({"Mod Loader"})
+    @StackTrace(false)
+    static class Transform extends Event {
+        @Label("Class")
+        String className;
+
+        @Label("Class Loader")
+        String classLoader;
+
+        @Label("Input Size")
+        @DataAmount
+        int inputSize;
+
+        @Label("Output Size")
+        @DataAmount
+        int outputSize;
+
+        @Label("Injections Applied")
+        int injections;
+    }
+}
@@ -0,0 +1,149 @@
+package io.github.freehij.loader;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.security.CodeSource;
+import java.security.ProtectionDomain;
+import java.security.cert.Certificate;
+import java.util.*;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+/**
+ * Loads the classes and resources of all mods without Fabric. The jars' central directories are read once into an
+ * index from directory to the jars that have entries in it, so a lookup opens at most the jars sharing that
+ * directory instead of trying every jar in turn like the system class path does.
+ * <p>
+ * Delegation is parent-first like any other class loader, the index only speeds up finding the classes the parent
+ * doesn't have. Game classes can't see mod classes, handlers are called through
+ * {@link io.github.freehij.loader.util.HandlerLinker}.
+ */
+class ModClassLoader extends ClassLoader implements Closeable {
+    static {
+        registerAsParallelCapable();
+    }
+
+    static final int[] NONE = new int[0];
+    final List<URL> urls;
+    final JarFile[] jars;
+    final ProtectionDomain[] domains;
+    final Manifest[] manifests;
+    // Directory of an entry ("a/b/" for "a/b/C.class") -> indices of the jars containing entries in it.
+    final Map<String, int[]> index = new HashMap<>();
+
+    ModClassLoader(List<URL> urls, ClassLoader parent) throws IOException {
+        super("mods", parent);
+        this.urls = urls;
+        jars = new JarFile[urls.size()];
+        domains = new ProtectionDomain[jars.length];
+        manifests = new Manifest[jars.length];
+        for (int i = 0; i < jars.length; i++) {
+            jars[i] = new JarFile(urls.get(i).getFile());
+            domains[i] = new ProtectionDomain(new CodeSource(urls.get(i), (Certificate[]) null), null, this, null);
+            manifests[i] = jars[i].getManifest();
+            Set<String> directories = new HashSet<>();
+            for (Enumeration<JarEntry> entries = jars[i].entries(); entries.hasMoreElements(); ) {
+                String name = entries.nextElement().getName();
+                if (!name.endsWith("/")) directories.add(directory(name));
+            }
+            for (String directory : directories) {
+                int[] previous = index.get(directory);
+                int[] found = previous == null ? new int[1] : Arrays.copyOf(previous, previous.length + 1);
+                found[found.length - 1] = i;
+                index.put(directory, found);
+            }
+        }
+    }
+
+    static String directory(String name) {
+        return name.substring(0, name.lastIndexOf('/') + 1);
+    }
+
+    @Override
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+        String path = name.replace('.', '/') + ".class";
+        for (int i : index.getOrDefault(directory(path), NONE)) {
+            JarEntry entry = jars[i].getJarEntry(path);
+            if (entry == null) continue;
+            byte[] bytes;
+            try (InputStream is = jars[i].getInputStream(entry)) {
+                bytes = is.readAllBytes();
+            } catch (IOException e) {
+                throw new ClassNotFoundException(name, e);
+            }
+            definePackage(name, i);
+            return defineClass(name, bytes, 0, bytes.length, domains[i]);
+        }
+        throw new ClassNotFoundException(name);
+    }
+
+    void definePackage(String className, int jar) {
+        int dot = className.lastIndexOf('.');
+        if (dot < 0) return;
+        String name = className.substring(0, dot);
+        if (getDefinedPackage(name) != null) return;
+        Attributes main = manifests[jar] == null ? new Attributes() : manifests[jar].getMainAttributes();
+        try {
+            definePackage(name, main.getValue(Attributes.Name.SPECIFICATION_TITLE),
+                    main.getValue(Attributes.Name.SPECIFICATION_VERSION),
+                    main.getValue(Attributes.Name.SPECIFICATION_VENDOR),
+                    main.getValue(Attributes.Name.IMPLEMENTATION_TITLE),
+                    main.getValue(Attributes.Name.IMPLEMENTATION_VERSION),
+                    main.getValue(Attributes.Name.IMPLEMENTATION_VENDOR), null);
+        } catch (IllegalArgumentException ignored) {
+            // Defined by another thread in the meantime.
+        }
+    }
+
+    // Read straight from the open jar rather than through a jar: URL, which would open it a second time.
+    @Override
+    public InputStream getResourceAsStream(String name) {
+        InputStream parent = getParent().getResourceAsStream(name);
+        if (parent != null) return parent;
+        for (int i : index.getOrDefault(directory(name), NONE)) {
+            JarEntry entry = jars[i].getJarEntry(name);
+            if (entry == null) continue;
+            try {
+                return jars[i].getInputStream(entry);
+            } catch (IOException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    protected URL findResource(String name) {
+        for (int i : index.getOrDefault(directory(name), NONE)) {
+            if (jars[i].getJarEntry(name) != null) return resource(i, name);
+        }
+        return null;
+    }
+
+    @Override
+    protected Enumeration<URL> findResources(String name) {
+        List<URL> found = new ArrayList<>();
+        for (int i : index.getOrDefault(directory(name), NONE)) {
+            if (jars[i].getJarEntry(name) != null) found.add(resource(i, name));
+        }
+        return Collections.enumeration(found);
+    }
+
+    URL resource(int jar, String name) {
+        try {
+            return new URL("jar:" + urls.get(jar) + "!/" + name);
+        } catch (MalformedURLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (JarFile jar : jars) jar.close();
+    }
+}
@@ -0,0 +1,9 @@
+package io.github.freehij.loader;
+
+/**
+ * Entrypoint of a mod, listed under {@code entrypoints} in its mod.properties. Runs once at startup, after the
+ * initializers of the mods listed under {@code depends} and possibly at the same time as those of other mods.
+ */
+public interface ModInitializer {
+    void onInitialize();
+}
@@ -0,0 +1,262 @@
+package io.github.freehij.loader;
+
+import io.github.freehij.loader.Loader.InjectionPoint;
+import io.github.freehij.loader.util.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+
+/**
+ * Ahead-of-time patch mode. Runs the regular injection pipeline over a game jar and writes a copy with every
+ * injection baked in, so the agent can skip transforming those classes at runtime.
+ * <p>
+ * Usage: {@code java -jar loader.jar <game jar> [output jar]}, from the directory that contains {@code mods/}.
+ * <p>
+ * The baked classes refer to their injections by id, so the agent refuses a patched jar unless it registered the same
+ * injections under the same ids, which also depends on Fabric and the built-in injections. It also refuses one built
+ * by another loader version, with other mod jars or whose game classes changed since.
+ */
+public class Patcher {
+    static final String PATCH_INFO = "META-INF/loader/patch.properties";
+
+    public static void main(String[] args) {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: java -jar <loader jar> <game jar> [output jar]");
+            System.exit(1);
+        }
+        Path input = Paths.get(args[0]);
+        Path output = args.length == 2 ? Paths.get(args[1]) : defaultOutput(input);
+        Loader.defineMods(true);
+        // The game is not on the class path here.
+        GameIndex.sources = List.of(input.toAbsolutePath().normalize());
+        Loader.registerInjections(false);
+        try {
+            patch(input, output);
+        } catch (IOException e) {
+            System.err.println("Failed to patch " + input);
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    static Path defaultOutput(Path input) {
+        String name = input.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return input.resolveSibling((dot > 0 ? name.substring(0, dot) : name) + "-patched.jar");
+    }
+
+    static void patch(Path input, Path output) throws IOException {
+        String registration = registration();
+        List<String> patched = new ArrayList<>();
+        URL[] frameUrls = new URL[Loader.modUrls.size() + 1];
+        frameUrls[0] = input.toUri().toURL();
+        for (int i = 0; i < Loader.modUrls.size(); i++) frameUrls[i + 1] = Loader.modUrls.get(i);
+
+        try (JarFile jar = new JarFile(input.toFile());
+             URLClassLoader frameLoader = new URLClassLoader(frameUrls, Patcher.class.getClassLoader());
+             JarOutputStream out = new JarOutputStream(Files.newOutputStream(output))) {
+            Enumeration<JarEntry> entries = jar.entries();
+            while (entries.hasMoreElements()) {
+                JarEntry entry = entries.nextElement();
+                String name = entry.getName();
+                if (name.equals(PATCH_INFO) || isSignature(name)) continue;
+                byte[] data;
+                try (InputStream is = jar.getInputStream(entry)) {
+                    data = is.readAllBytes();
+                }
+                if (name.endsWith(".class")) {
+                    String className = name.substring(0, name.length() - ".class".length());
+                    if (Loader.injectionPoints.containsKey(className)) {
+                        Logger.debug("Patching " + className, "Patcher");
+                        data = Loader.transformClass(className, data, frameLoader);
+                        patched.add(className);
+                    }
+                }
+                JarEntry copy = new JarEntry(name);
+                copy.setTime(entry.getTime());
+                out.putNextEntry(copy);
+                out.write(data);
+                out.closeEntry();
+            }
+
+            Properties info = new Properties();
+            info.setProperty("loader.version", Loader.VERSION);
+            info.setProperty("game.sha256", hashGame(jar, new HashSet<>(patched)));
+            info.setProperty("registration.sha256", registration);
+            info.setProperty("targets", String.join(",", patched));
+            for (Map.Entry<String, String> mod : hashMods().entrySet()) {
+                info.setProperty("mod." + mod.getKey(), mod.getValue());
+            }
+            out.putNextEntry(new JarEntry(PATCH_INFO));
+            info.store(out, "Generated by loader " + Loader.VERSION);
+            out.closeEntry();
+        }
+        Logger.info("Patched " + patched.size() + " classes into " + output, "Patcher");
+    }
+
+    static boolean isSignature(String name) {
+        if (!name.startsWith("META-INF/") || name.indexOf('/', "META-INF/".length()) != -1) return false;
+        return name.endsWith(".SF") || name.endsWith(".RSA") || name.endsWith(".DSA") || name.endsWith(".EC");
+    }
+
+    /**
+     * Refuses to start if a pre-patched jar was built with other injection ids than the ones just registered, which
+     * would mix up the state of its sites with the ones transformed at runtime, or doesn't match the loader, mods or
+     * game classes. Transforming its baked classes again instead would apply their injections twice.
+     */
+    static void excludePatchedTargets() {
+        Enumeration<URL> resources;
+        try {
+            resources = ClassLoader.getSystemClassLoader().getResources(PATCH_INFO);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        Map<String, String> modHashes = null;
+        String registration = null;
+        while (resources.hasMoreElements()) {
+            URL url = resources.nextElement();
+            Properties info = new Properties();
+            try (InputStream is = url.openStream()) {
+                info.load(is);
+            } catch (IOException e) {
+                e.printStackTrace();
+                continue;
+            }
+            if (registration == null) registration = registration();
+            if (!registration.equals(info.getProperty("registration.sha256"))) {
+                Logger.error("Pre-patched jar " + url + " was built with other injections than this launch has " +
+                        "(mods, Fabric or built-in injections changed), re-run the patcher.", "Loader");
+                Logger.flush();
+                System.exit(2);
+            }
+            if (modHashes == null) modHashes = hashMods();
+            if (!matches(info, modHashes)) {
+                Logger.error("Pre-patched jar " + url + " was built by another loader version or with other mod " +
+                        "jars, re-run the patcher.", "Loader");
+                Logger.flush();
+                System.exit(2);
+            }
+            Set<String> targets = new HashSet<>();
+            for (String target : info.getProperty("targets", "").split(",")) {
+                if (!target.isEmpty()) targets.add(target);
+            }
+            String game = hashGame(url, targets);
+            if (!Objects.equals(game, info.getProperty("game.sha256"))) {
+                Logger.error("Pre-patched jar " + url + " does not contain the game classes it was built from, " +
+                        "re-run the patcher.", "Loader");
+                Logger.flush();
+                System.exit(2);
+            }
+            int skipped = 0;
+            for (String target : targets) {
+                if (Loader.injectionPoints.remove(target) != null) skipped++;
+            }
+            Logger.info("Using pre-patched jar " + url + " (" + skipped + " classes)", "Loader");
+        }
+    }
+
+    static boolean matches(Properties info, Map<String, String> modHashes) {
+        if (!Loader.VERSION.equals(info.getProperty("loader.version"))) return false;
+        Map<String, String> baked = new TreeMap<>();
+        for (String key : info.stringPropertyNames()) {
+            if (key.startsWith("mod.")) baked.put(key.substring("mod.".length()), info.getProperty(key));
+        }
+        return baked.equals(modHashes);
+    }
+
+    static Map<String, String> hashMods() {
+        Map<String, String> hashes = new TreeMap<>();
+        for (Loader.ModInfo mod : Loader.mods) {
+            if (mod.jarPath() == null) continue;
+            // Mods without a modid still load, they are told apart by their jar.
+            String key = mod.id() != null ? mod.id() : mod.jarPath().getFileName().toString();
+            try {
+                hashes.put(key, hash(mod.jarPath()));
+            } catch (IOException e) {
+                hashes.put(key, "unreadable");
+            }
+        }
+        return hashes;
+    }
+
+    // Every registered injection with its id and target, in id order.
+    static String registration() {
+        List<InjectionPoint> points = new ArrayList<>();
+        for (List<InjectionPoint> list : Loader.injectionPoints.values()) points.addAll(list);
+        points.sort(Comparator.comparingInt(point -> point.id));
+        StringBuilder registration = new StringBuilder();
+        for (InjectionPoint point : points) {
+            registration.append(point.id).append(' ').append(point.targetClass).append(' ').append(point).append('\n');
+        }
+        MessageDigest digest = sha256();
+        return HexFormat.of().formatHex(digest.digest(registration.toString().getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * @return the hash of the patched jar containing {@code url}, null if it can't be read
+     */
+    static String hashGame(URL url, Set<String> targets) {
+        try {
+            JarURLConnection connection = (JarURLConnection) url.openConnection();
+            try (JarFile jar = new JarFile(Paths.get(connection.getJarFileURL().toURI()).toFile())) {
+                return hashGame(jar, targets);
+            }
+        } catch (IOException | URISyntaxException | ClassCastException | IllegalArgumentException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    // Every entry the patcher copies unchanged, so the game jar and its patched copy hash the same.
+    static String hashGame(JarFile jar, Set<String> targets) throws IOException {
+        MessageDigest digest = sha256();
+        Enumeration<JarEntry> entries = jar.entries();
+        while (entries.hasMoreElements()) {
+            JarEntry entry = entries.nextElement();
+            String name = entry.getName();
+            if (name.equals(PATCH_INFO) || isSignature(name)) continue;
+            if (name.endsWith(".class") && targets.contains(name.substring(0, name.length() - ".class".length()))) {
+                continue;
+            }
+            digest.update(name.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            try (InputStream is = new DigestInputStream(jar.getInputStream(entry), digest)) {
+                is.transferTo(OutputStream.nullOutputStream());
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    static String hash(Path file) throws IOException {
+        MessageDigest digest = sha256();
+        try (InputStream is = new DigestInputStream(Files.newInputStream(file), digest)) {
+            is.transferTo(OutputStream.nullOutputStream());
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
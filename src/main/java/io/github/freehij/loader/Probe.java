@@ -0,0 +1,188 @@
+package io.github.freehij.loader;
+
+import io.github.freehij.injections.ServerTickProfiler;
+import io.github.freehij.loader.Loader.InjectionPoint;
+import io.github.freehij.loader.util.AllocationProbe;
+import io.github.freehij.loader.util.HandlerSampler;
+import io.github.freehij.loader.util.InjectionMetrics;
+import io.github.freehij.loader.constant.OverBudget;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Code generated around every handler call. {@code enter} may leave one value on the operand stack that the matching
+ * {@code exit} takes off again, so probes nest without extra locals. The helper is in local 100 when {@code exit} runs.
+ * {@code helperCreated} runs with the new helper on top of the stack, also inside outlined bridges, and has to leave
+ * the stack as it found it. {@code guard} runs before any of that and may jump to {@code skip} to leave out the whole
+ * injection for this call.
+ */
+interface Probe {
+    List<Probe> ACTIVE = active();
+
+    void enter(MethodVisitor mv, InjectionPoint injection);
+
+    void exit(MethodVisitor mv, InjectionPoint injection);
+
+    default void helperCreated(MethodVisitor mv, InjectionPoint injection) {
+    }
+
+    /**
+     * Whether {@code exit} reads the helper, handlers inlined without one are only possible if no probe does.
+     */
+    default boolean needsHelper(InjectionPoint injection) {
+        return true;
+    }
+
+    /**
+     * Whether any code is generated for the injection, backends that can't generate probes only handle those without.
+     */
+    default boolean appliesTo(InjectionPoint injection) {
+        return true;
+    }
+
+    /**
+     * @return whether a jump to {@code skip} was generated
+     */
+    default boolean guard(MethodVisitor mv, InjectionPoint injection, Label skip) {
+        return false;
+    }
+
+    static List<Probe> active() {
+        List<Probe> probes = new ArrayList<>();
+        // First, so the other guards only see sampled calls.
+        probes.add(new SamplingProbe());
+        if (ServerTickProfiler.ENABLED) {
+            probes.add(new StaticProbe("io/github/freehij/injections/ServerTickProfiler", "J", false));
+        }
+        if (InjectionMetrics.ENABLED) probes.add(new StaticProbe("io/github/freehij/loader/util/InjectionMetrics", "J", false));
+        if (HandlerSampler.SAMPLE_RATE > 0) {
+            probes.add(new StaticProbe("io/github/freehij/loader/util/HandlerSampler", "Ljava/lang/Object;", false));
+        }
+        probes.add(new BudgetProbe());
+        // Innermost, so the other probes' own allocations are not counted.
+        if (AllocationProbe.ENABLED) {
+            probes.add(new StaticProbe("io/github/freehij/loader/util/AllocationProbe", "J", true));
+        }
+        return probes;
+    }
+
+    /**
+     * Calls {@code owner.enter()} returning a value of type {@code token},
+     * {@code owner.exit(token, int id, String name, InjectionHelper)} and, if {@code markHelper} is set,
+     * {@code owner.helperCreated(InjectionHelper)}.
+     */
+    record StaticProbe(String owner, String token, boolean markHelper) implements Probe {
+        @Override
+        public void enter(MethodVisitor mv, InjectionPoint injection) {
+            mv.visitMethodInsn(Opcodes.INVOKESTATIC, owner, "enter", "()" + token, false);
+        }
+
+        @Override
+        public void exit(MethodVisitor mv, InjectionPoint injection) {
+            mv.visitLdcInsn(injection.id);
+            mv.visitLdcInsn(injection.toString());
+            mv.visitVarInsn(Opcodes.ALOAD, 100);
+            mv.visitMethodInsn(Opcodes.INVOKESTATIC, owner, "exit",
+                    "(" + token + "ILjava/lang/String;Lio/github/freehij/loader/util/InjectionHelper;)V", false);
+        }
+
+        @Override
+        public void helperCreated(MethodVisitor mv, InjectionPoint injection) {
+            if (!markHelper) return;
+            mv.visitInsn(Opcodes.DUP);
+            mv.visitMethodInsn(Opcodes.INVOKESTATIC, owner, "helperCreated",
+                    "(Lio/github/freehij/loader/util/InjectionHelper;)V", false);
+        }
+    }
+
+    /**
+     * Times handlers that have a budget and skips them while {@code InjectionBudget} has them degraded.
+     */
+    class BudgetProbe implements Probe {
+        static final String OWNER = "io/github/freehij/loader/util/InjectionBudget";
+
+        @Override
+        public boolean appliesTo(InjectionPoint injection) {
+            return injection.inject.budgetMicros() > 0;
+        }
+
+        @Override
+        public boolean guard(MethodVisitor mv, InjectionPoint injection, Label skip) {
+            if (injection.inject.budgetMicros() <= 0) return false;
+            mv.visitLdcInsn(injection.id);
+            mv.visitLdcInsn(injection.toString());
+            mv.visitMethodInsn(Opcodes.INVOKESTATIC, OWNER, "shouldRun", "(ILjava/lang/String;)Z", false);
+            mv.visitJumpInsn(Opcodes.IFEQ, skip);
+            return true;
+        }
+
+        @Override
+        public void enter(MethodVisitor mv, InjectionPoint injection) {
+            if (injection.inject.budgetMicros() <= 0) return;
+            mv.visitMethodInsn(Opcodes.INVOKESTATIC, OWNER, "enter", "()J", false);
+        }
+
+        @Override
+        public void exit(MethodVisitor mv, InjectionPoint injection) {
+            if (injection.inject.budgetMicros() <= 0) return;
+            mv.visitLdcInsn(injection.id);
+            mv.visitLdcInsn(injection.toString());
+            mv.visitLdcInsn(injection.inject.budgetMicros() * 1000L);
+            mv.visitInsn(injection.inject.overBudget() == OverBudget.DISABLE ? Opcodes.ICONST_1 : Opcodes.ICONST_0);
+            mv.visitMethodInsn(Opcodes.INVOKESTATIC, OWNER, "exit", "(JILjava/lang/String;JZ)V", false);
+        }
+
+        @Override
+        public boolean needsHelper(InjectionPoint injection) {
+            return false;
+        }
+    }
+
+    /**
+     * Skips calls of sampled injections that are not picked.
+     */
+    class SamplingProbe implements Probe {
+        static final String OWNER = "io/github/freehij/loader/util/InjectionSampling";
+
+        @Override
+        public boolean appliesTo(InjectionPoint injection) {
+            return injection.inject.sampleEvery() > 1 || injection.inject.sampleChance() < 1;
+        }
+
+        @Override
+        public boolean guard(MethodVisitor mv, InjectionPoint injection, Label skip) {
+            boolean guarded = false;
+            if (injection.inject.sampleEvery() > 1) {
+                mv.visitLdcInsn(injection.id);
+                mv.visitLdcInsn(injection.inject.sampleEvery());
+                mv.visitMethodInsn(Opcodes.INVOKESTATIC, OWNER, "every", "(II)Z", false);
+                mv.visitJumpInsn(Opcodes.IFEQ, skip);
+                guarded = true;
+            }
+            if (injection.inject.sampleChance() < 1) {
+                mv.visitLdcInsn(injection.inject.sampleChance());
+                mv.visitMethodInsn(Opcodes.INVOKESTATIC, OWNER, "chance", "(D)Z", false);
+                mv.visitJumpInsn(Opcodes.IFEQ, skip);
+                guarded = true;
+            }
+            return guarded;
+        }
+
+        @Override
+        public void enter(MethodVisitor mv, InjectionPoint injection) {
+        }
+
+        @Override
+        public void exit(MethodVisitor mv, InjectionPoint injection) {
+        }
+
+        @Override
+        public boolean needsHelper(InjectionPoint injection) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package io.github.freehij.loader;
+
+import io.github.freehij.loader.Loader.InjectionPoint;
+import io.github.freehij.loader.util.HandlerLinker;
+import io.github.freehij.loader.util.Logger;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Injection classes registered and unregistered after startup. Changes are collected for
+ * {@code loader.register.windowMs} milliseconds (50) and applied together, the loaded targets of a whole batch are
+ * retransformed in one call so many registrations cost a single pause.
+ */
+class Registrations {
+    static final long WINDOW_MILLIS = Long.getLong("loader.register.windowMs", 50);
+    static final String MOD_ID = "runtime";
+    // Handler class -> its class loader, null to unregister it. A later change to the same class replaces the earlier.
+    static final Map<String, ClassLoader> pending = new LinkedHashMap<>();
+    static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "Loader registrations");
+        thread.setDaemon(true);
+        return thread;
+    });
+    static CompletableFuture<Void> batch = new CompletableFuture<>();
+
+    static CompletableFuture<Void> submit(String className, ClassLoader loader) {
+        if (Loader.instrumentation == null) throw new IllegalStateException("The loader is not running as an agent");
+        synchronized (pending) {
+            if (pending.isEmpty()) scheduler.schedule(Registrations::flush, WINDOW_MILLIS, TimeUnit.MILLISECONDS);
+            pending.put(className.replace('.', '/'), loader);
+            return batch;
+        }
+    }
+
+    static void flush() {
+        Map<String, ClassLoader> changes;
+        CompletableFuture<Void> done;
+        synchronized (pending) {
+            changes = new LinkedHashMap<>(pending);
+            pending.clear();
+            done = batch;
+            batch = new CompletableFuture<>();
+        }
+        try {
+            apply(changes);
+            done.complete(null);
+        } catch (RuntimeException e) {
+            done.completeExceptionally(e);
+        }
+    }
+
+    static void apply(Map<String, ClassLoader> changes) {
+        long start = System.nanoTime();
+        Map<String, List<InjectionPoint>> added = new HashMap<>();
+        Set<String> replaced = new HashSet<>();
+        for (Map.Entry<String, ClassLoader> change : changes.entrySet()) {
+            String className = change.getKey();
+            if (change.getValue() == null) {
+                replaced.add(className);
+                continue;
+            }
+            Map<String, List<InjectionPoint>> points = new HashMap<>();
+            try {
+                Loader.processInjectionClass(className, change.getValue(), MOD_ID, true, points);
+            } catch (RuntimeException e) {
+                System.err.println("Failed to register injection class " + className);
+                e.printStackTrace();
+                continue;
+            }
+            points.forEach((target, list) -> added.computeIfAbsent(target, k -> new ArrayList<>()).addAll(list));
+            replaced.add(className);
+            HandlerLinker.setOwner(className, change.getValue());
+        }
+        Set<String> changed = Loader.replaceInjections(
+                p -> MOD_ID.equals(p.modId) && replaced.contains(p.handlerClass), added);
+        for (String className : replaced) {
+            if (changes.get(className) == null) HandlerLinker.setOwner(className, null);
+        }
+        HandlerLinker.relink(new ArrayList<>(replaced));
+        if (!added.isEmpty()) Loader.addTransformer();
+        Loader.retransform(changed);
+        Logger.info("Applied " + changes.size() + " injection class changes in " +
+                (System.nanoTime() - start) / 1_000_000 + " ms", "Loader");
+    }
+}
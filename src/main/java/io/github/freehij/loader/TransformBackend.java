@@ -0,0 +1,51 @@
+package io.github.freehij.loader;
+
+import io.github.freehij.loader.util.Logger;
+
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Bytecode engine that applies the registered injection points to a class. Selected with
+ * {@code -Dloader.backend=<name>}, falling back to {@code asm} when the requested one is unknown or unusable
+ * on the running JDK.
+ */
+interface TransformBackend {
+    Map<String, Supplier<TransformBackend>> BACKENDS = Map.of(
+            "asm", AsmBackend::new,
+            "classfile", () -> load("io.github.freehij.loader.ClassFileBackend")
+    );
+
+    String name();
+
+    boolean isAvailable();
+
+    /**
+     * @param frameLoader loader used to resolve common super classes while computing frames, {@code null} for the
+     *                    loader's own class loader
+     */
+    byte[] transform(String className, byte[] buffer, ClassLoader frameLoader);
+
+    static TransformBackend select(String name) {
+        Supplier<TransformBackend> factory = BACKENDS.get(name);
+        if (factory != null) {
+            TransformBackend backend = factory.get();
+            if (backend != null && backend.isAvailable()) return backend;
+            Logger.info("Transform backend " + name + " is not available on this JDK, using asm", "Loader");
+        } else {
+            Logger.info("Unknown transform backend " + name + ", available: " + BACKENDS.keySet(), "Loader");
+        }
+        return new AsmBackend();
+    }
+
+    /**
+     * @return the backend compiled into the versioned part of the jar for a newer JDK, or null on older ones
+     */
+    static TransformBackend load(String className) {
+        try {
+            return (TransformBackend) Class.forName(className).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+}
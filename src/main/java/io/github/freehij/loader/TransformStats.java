@@ -0,0 +1,45 @@
+package io.github.freehij.loader;
+
+import com.sun.management.ThreadMXBean;
+import io.github.freehij.loader.util.Logger;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Transform time and heap allocation per transformed class, enabled with -Dloader.transformStats=true and
+ * printed on shutdown.
+ */
+class TransformStats {
+    static final boolean ENABLED = Boolean.getBoolean("loader.transformStats");
+    static final ThreadMXBean THREADS = ENABLED ? (ThreadMXBean) ManagementFactory.getThreadMXBean() : null;
+    static final LongAdder classes = new LongAdder();
+    static final LongAdder nanos = new LongAdder();
+    static final LongAdder allocated = new LongAdder();
+    static final LongAdder inputBytes = new LongAdder();
+    static final LongAdder outputBytes = new LongAdder();
+
+    static {
+        if (ENABLED) Runtime.getRuntime().addShutdownHook(new Thread(() -> Logger.info(summary(), "Loader")));
+    }
+
+    static long allocatedBytes() {
+        return THREADS.getCurrentThreadAllocatedBytes();
+    }
+
+    static void record(long nanoTime, long allocatedBytes, int input, int output) {
+        classes.increment();
+        nanos.add(nanoTime);
+        allocated.add(allocatedBytes);
+        inputBytes.add(input);
+        outputBytes.add(output);
+    }
+
+    static String summary() {
+        long count = classes.sum();
+        if (count == 0) return "No classes transformed";
+        return "Transformed " + count + " classes in " + nanos.sum() / 1_000_000 + " ms, " +
+                allocated.sum() / count + " bytes allocated per class (" + inputBytes.sum() / count + " bytes in, " +
+                outputBytes.sum() / count + " bytes out on average)";
+    }
+}
@@ -10,7 +10,21 @@ public @interface AdvancedAt {
         ASSIGN_FIELD,
         INVOKE,
         FETCH_LOCAL,
-        FETCH_FIELD
+        FETCH_FIELD,
+        /**
+         * Replaces the matched call with a call to the handler, which takes the receiver (unless the call is
+         * static) and the arguments and returns what the call would have. No helper is created, so the call is not
+         * counted by metrics, budgets or sampling. Constructor calls are skipped, {@code super} calls can't be
+         * redirected and leave the injection unsatisfied.
+         */
+        REDIRECT_INVOKE,
+        /**
+         * Passes the matched constant through the handler, e.g. {@code static int modify(int original)}. No helper is
+         * created. {@code optional} is the constant as a Java literal: {@code 20}, {@code 20L}, {@code 0.5F},
+         * {@code 0.5}, {@code text} or {@code java/lang/String} for a class. Like redirects, it is not counted by
+         * metrics, budgets or sampling.
+         */
+        MODIFY_CONSTANT
     }
 
     At at();
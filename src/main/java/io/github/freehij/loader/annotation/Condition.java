@@ -0,0 +1,30 @@
+package io.github.freehij.loader.annotation;
+
+import io.github.freehij.loader.constant.Side;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Checked once while the loader registers injections, an injection or class whose conditions don't all hold is
+ * never applied. Every attribute that is set has to match.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({})
+public @interface Condition {
+    /**
+     * System property that has to be set, to {@link #value()} if that is not empty.
+     */
+    String property() default "";
+    String value() default "";
+    /**
+     * Id of a mod that has to be loaded.
+     */
+    String mod() default "";
+    /**
+     * Detected from the game jar on the class path, or set with -Dloader.side=client/server.
+     */
+    Side side() default Side.ANY;
+    boolean negate() default false;
+}
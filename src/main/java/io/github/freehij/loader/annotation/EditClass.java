@@ -8,5 +8,11 @@ import java.lang.annotation.Target;
 @Retention(RetentionPolicy.RUNTIME)
 @Target(ElementType.TYPE)
 public @interface EditClass {
-    String[] value();
+    String[] value() default {};
+    /**
+     * Also targets every game class extending or implementing one of these, directly or not, as found in the game
+     * index. Classes that don't declare the injected method themselves are skipped.
+     */
+    String[] subclassesOf() default {};
+    Condition[] conditions() default {};
 }
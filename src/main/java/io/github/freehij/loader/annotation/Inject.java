@@ -2,7 +2,10 @@ package io.github.freehij.loader.annotation;
 
 import io.github.freehij.loader.constant.ArgMode;
 import io.github.freehij.loader.constant.At;
+import io.github.freehij.loader.constant.Backpressure;
 import io.github.freehij.loader.constant.FailStrategy;
+import io.github.freehij.loader.constant.OverBudget;
+import io.github.freehij.loader.constant.ThreadAffinity;
 
 import java.lang.annotation.ElementType;
 import java.lang.annotation.Retention;
@@ -25,4 +28,54 @@ public @interface Inject {
      */
     int priority() default 500;
     FailStrategy failStrategy() default FailStrategy.NOTIFY;
+    /**
+     * Moves the injected code into a synthetic method of the target class, keeping the injected method small
+     * enough for the JIT to inline and compile. Enabled for every injection with -Dloader.outline=true.
+     */
+    boolean outline() default false;
+    /**
+     * Copies the handler's bytecode into the injected method instead of calling it, for tiny handlers in hot methods.
+     * Handlers that only read arguments, locals or the instance don't even get a helper. Handlers that can't be
+     * copied safely are called as usual.
+     */
+    boolean inline() default false;
+    /**
+     * Time budget per call in microseconds, 0 for none. A handler that goes over it in most of its recent calls is
+     * degraded as set by {@link #overBudget()} until it behaves again, without retransforming the target.
+     */
+    int budgetMicros() default 0;
+    /**
+     * SAMPLE only calls a degraded handler every {@code loader.budget.sampleEvery}-th time (10), DISABLE stops
+     * calling it.
+     */
+    OverBudget overBudget() default OverBudget.SAMPLE;
+    /**
+     * Only runs the injection on every n-th call per thread, the other calls skip building the helper and capturing
+     * arguments altogether. Meant for handlers that only observe.
+     */
+    int sampleEvery() default 1;
+    /**
+     * Only runs the injection with this probability per call, like {@link #sampleEvery()}.
+     */
+    double sampleChance() default 1;
+    /**
+     * Queues the helper for a background thread instead of calling the handler on the calling thread, for handlers
+     * that only observe. Cancelling has no effect, FETCH_APPLY and modifyLocals injections are always called directly.
+     */
+    boolean async() default false;
+    /**
+     * What an async injection does while the queue ({@code loader.async.capacity}, 65536) is full: DROP the call,
+     * BLOCK until there is room or call the handler INLINE.
+     */
+    Backpressure backpressure() default Backpressure.DROP;
+    /**
+     * Only calls the handler on the server or client thread. Calls from other threads are queued and run at the start
+     * of the owning thread's next tick, for those cancelling and changing arguments or locals has no effect.
+     * Ignored for async injections.
+     */
+    ThreadAffinity affinity() default ThreadAffinity.ANY;
+    /**
+     * Checked once at startup, an injection whose conditions don't hold is left out of the target entirely.
+     */
+    Condition[] conditions() default {};
 }
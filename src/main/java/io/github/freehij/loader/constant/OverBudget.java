@@ -0,0 +1,6 @@
+package io.github.freehij.loader.constant;
+
+public enum OverBudget {
+    SAMPLE,
+    DISABLE
+}
@@ -0,0 +1,7 @@
+package io.github.freehij.loader.constant;
+
+public enum ThreadAffinity {
+    ANY,
+    SERVER,
+    CLIENT
+}
@@ -0,0 +1,91 @@
+package io.github.freehij.loader.util;
+
+import io.github.freehij.loader.constant.ThreadAffinity;
+
+/**
+ * Runtime side of {@code @Inject(affinity = ...)}. A site on the owning thread calls its handler directly, any other
+ * thread {@link #submit}s the helper to the queue of that affinity, which the owning thread {@link #drain}s at the
+ * start of its next tick. The owner is whichever thread drained last, until the first tick every call is queued.
+ * Queued calls skip writing back arguments and locals and the cancel check at the site.
+ * <p>
+ * The queues hold {@code loader.affinity.capacity} calls (default 65536). Calls to a full queue are dropped and
+ * counted: the owning thread may well be waiting on the worker that is submitting, so it can't wait for room.
+ */
+public class AffinityDispatch {
+    static final int CAPACITY = Integer.getInteger("loader.affinity.capacity", 65536);
+    static final SiteRegistry<DeferredHandler> sites = new SiteRegistry<>(DeferredHandler::new);
+    static final MpscRingBuffer<Entry> serverQueue = new MpscRingBuffer<>(CAPACITY, Entry::new);
+    static final MpscRingBuffer<Entry> clientQueue = new MpscRingBuffer<>(CAPACITY, Entry::new);
+    static volatile Thread serverThread, clientThread;
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(AffinityDispatch::shutdown, "Loader affinity report"));
+    }
+
+    public static boolean isOwner(int affinity) {
+        return (affinity == ThreadAffinity.SERVER.ordinal() ? serverThread : clientThread) == Thread.currentThread();
+    }
+
+    public static void submit(InjectionHelper helper, int id, String handlerClass, String handlerMethod,
+                              int affinity) {
+        DeferredHandler handler = sites.get(id, handlerClass + " -> " + handlerMethod);
+        if (!handler.resolve(helper.type, handlerClass, handlerMethod)) {
+            handler.dropped.increment();
+            return;
+        }
+        MpscRingBuffer<Entry> queue = affinity == ThreadAffinity.SERVER.ordinal() ? serverQueue : clientQueue;
+        long sequence = queue.claim();
+        if (sequence < 0) {
+            if (handler.dropped.sum() == 0) {
+                Logger.warn("Thread affinity queue is full, dropping calls to " + handler.name, "Loader");
+            }
+            handler.dropped.increment();
+            return;
+        }
+        helper.queued = true;
+        Entry entry = queue.get(sequence);
+        entry.handler = handler;
+        entry.helper = helper;
+        queue.publish(sequence);
+    }
+
+    /**
+     * Whether the site's call was queued, the calling thread must not touch the helper after that.
+     */
+    public static boolean wasQueued(InjectionHelper helper) {
+        return helper.queued;
+    }
+
+    public static void drain(ThreadAffinity affinity) {
+        MpscRingBuffer<Entry> queue;
+        if (affinity == ThreadAffinity.SERVER) {
+            serverThread = Thread.currentThread();
+            queue = serverQueue;
+        } else {
+            clientThread = Thread.currentThread();
+            queue = clientQueue;
+        }
+        // The owner may change between ticks, the ring buffer allows only one draining thread at a time.
+        synchronized (queue) {
+            queue.drain(entry -> {
+                DeferredHandler handler = entry.handler;
+                InjectionHelper helper = entry.helper;
+                entry.handler = null;
+                entry.helper = null;
+                handler.deliver(helper);
+            });
+        }
+    }
+
+    static void shutdown() {
+        for (DeferredHandler handler : sites.all()) {
+            long dropped = handler.dropped.sum();
+            if (dropped > 0) Logger.warn("Dropped " + dropped + " queued calls to " + handler.name, "Loader");
+        }
+    }
+
+    static class Entry {
+        DeferredHandler handler;
+        InjectionHelper helper;
+    }
+}
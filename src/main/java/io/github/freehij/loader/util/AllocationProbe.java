@@ -0,0 +1,93 @@
+package io.github.freehij.loader.util;
+
+import com.sun.management.ThreadMXBean;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Heap allocated by each injection, enabled with -Dloader.allocations=true and logged every
+ * {@code loader.allocations.interval} seconds (60 by default, 0 to only log on shutdown).
+ * <p>
+ * Bytes allocated before the handler runs (the {@link InjectionHelper}, argument arrays and boxing) are counted as the
+ * loader's, everything from the handler call until it returns as the mod's.
+ */
+public class AllocationProbe {
+    public static final boolean ENABLED = Boolean.getBoolean("loader.allocations");
+    static final long INTERVAL = Long.getLong("loader.allocations.interval", 60);
+    static final ThreadMXBean THREADS = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+    static final SiteRegistry<Site> sites = new SiteRegistry<>(Site::new);
+
+    static {
+        if (ENABLED) start();
+    }
+
+    public static long enter() {
+        return THREADS.getCurrentThreadAllocatedBytes();
+    }
+
+    public static void helperCreated(InjectionHelper helper) {
+        helper.allocationMark = THREADS.getCurrentThreadAllocatedBytes();
+    }
+
+    public static void exit(long start, int id, String name, InjectionHelper helper) {
+        long end = THREADS.getCurrentThreadAllocatedBytes();
+        Site site = sites.get(id, name);
+        site.calls.increment();
+        site.framework.add(helper.allocationMark - start);
+        site.handler.add(end - helper.allocationMark);
+    }
+
+    static void start() {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> report(10)));
+        if (INTERVAL <= 0) return;
+        Thread reporter = new Thread(() -> {
+            try {
+                while (true) {
+                    Thread.sleep(INTERVAL * 1000);
+                    report(10);
+                }
+            } catch (InterruptedException ignored) {
+            }
+        }, "Loader allocations");
+        reporter.setDaemon(true);
+        reporter.start();
+    }
+
+    static void report(int limit) {
+        List<Site> active = new ArrayList<>();
+        for (Site site : sites.all()) {
+            if (site.calls.sum() > 0) active.add(site);
+        }
+        if (active.isEmpty()) return;
+        active.sort(Comparator.comparingLong(Site::total).reversed());
+        Logger.info("Allocation by handler (top " + Math.min(limit, active.size()) + " of " + active.size() + "):",
+                "Allocations");
+        for (Site site : active.subList(0, Math.min(limit, active.size()))) {
+            long calls = site.calls.sum();
+            long handler = site.handler.sum();
+            long framework = site.framework.sum();
+            Logger.info("	- " + site.name + ": " + (handler + framework) / 1024 + " KiB over " + calls + " calls, " +
+                    handler / calls + " bytes/call in the handler, " + framework / calls + " bytes/call in the loader",
+                    "Allocations");
+        }
+    }
+
+    static class Site {
+        final String name;
+        final LongAdder calls = new LongAdder();
+        final LongAdder framework = new LongAdder();
+        final LongAdder handler = new LongAdder();
+
+        Site(String name) {
+            this.name = name;
+        }
+
+        long total() {
+            return framework.sum() + handler.sum();
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package io.github.freehij.loader.util;
 
+import io.github.freehij.loader.annotation.Condition;
+import io.github.freehij.loader.annotation.EditClass;
 import io.github.freehij.loader.annotation.Inject;
 import org.objectweb.asm.*;
 
@@ -17,8 +19,10 @@ import java.util.function.Consumer;
 public class AnnotationParser {
     public static ParsedClass parseClassForInjections(String className, ClassLoader loader) {
         ClassData data = parseClass(className, loader);
-        if (data == null || data.editClassTarget == null || data.editClassTarget.length == 0) {
-            return new ParsedClass(null, Collections.emptyList());
+        String[] subclassesOf = data == null ? new String[0] : strings(data.editClass, "subclassesOf");
+        String[] targets = data == null || data.editClassTarget == null ? new String[0] : data.editClassTarget;
+        if (targets.length == 0 && subclassesOf.length == 0) {
+            return new ParsedClass(null, new String[0], new Condition[0], Collections.emptyList());
         }
 
         List<ParsedMethod> methods = new ArrayList<>();
@@ -27,7 +31,18 @@ public class AnnotationParser {
             methods.add(new ParsedMethod(entry.getKey(), injectProxy));
         }
 
-        return new ParsedClass(data.editClassTarget, methods);
+        Condition[] conditions = data.editClass.attributes.containsKey("conditions")
+                ? createAnnotationProxy(EditClass.class, data.editClass, loader).conditions() : new Condition[0];
+        return new ParsedClass(targets, subclassesOf, conditions, methods);
+    }
+
+    static String[] strings(AnnotationData annotation, String name) {
+        Object raw = annotation == null ? null : annotation.attributes.get(name);
+        if (raw instanceof String value) return new String[]{value};
+        if (!(raw instanceof Object[] values)) return new String[0];
+        String[] strings = new String[values.length];
+        for (int i = 0; i < values.length; i++) strings[i] = (String) values[i];
+        return strings;
     }
 
     static ClassData parseClass(String className, ClassLoader loader) {
@@ -44,6 +59,7 @@ public class AnnotationParser {
 
     static class ClassVisitorImpl extends ClassVisitor {
         String[] editClassValues;
+        AnnotationData editClass;
         final Map<String, AnnotationData> injectAnnotations = new HashMap<>();
 
         ClassVisitorImpl() { super(Opcodes.ASM9); }
@@ -52,6 +68,7 @@ public class AnnotationParser {
         public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
             if (descriptor.equals("Lio/github/freehij/loader/annotation/EditClass;")) {
                 return new ValueCollector(values -> {
+                    editClass = new AnnotationData(descriptor, values);
                     Object raw = values.get("value");
                     if (raw instanceof String) {
                         editClassValues = new String[]{(String) raw};
@@ -80,7 +97,7 @@ public class AnnotationParser {
         }
 
         ClassData getData() {
-            return new ClassData(editClassValues, injectAnnotations);
+            return new ClassData(editClassValues, editClass, injectAnnotations);
         }
     }
 
@@ -138,7 +155,8 @@ public class AnnotationParser {
         }
     }
 
-    record ClassData(String[] editClassTarget, Map<String, AnnotationData> injectAnnotations) { }
+    record ClassData(String[] editClassTarget, AnnotationData editClass,
+                     Map<String, AnnotationData> injectAnnotations) { }
 
     record AnnotationData(String descriptor, Map<String, Object> attributes) { }
 
@@ -302,6 +320,8 @@ public class AnnotationParser {
         boolean valuesEqual(Object a, Object b) {
             if (a == b) return true;
             if (a == null || b == null) return false;
+            // Nested proxies of the same annotation from different class loaders have different classes.
+            if (a instanceof Annotation && b instanceof Annotation) return a.equals(b);
             if (a.getClass() != b.getClass()) return false;
             if (a.getClass().isArray()) {
                 int len = Array.getLength(a);
@@ -316,11 +336,15 @@ public class AnnotationParser {
     }
 
     public static class ParsedClass {
-        public final String[] editClassTarget;
+        public final String[] editClassTarget, subclassesOf;
+        public final Condition[] conditions;
         public final List<ParsedMethod> methods;
 
-        ParsedClass(String[] editClassTarget, List<ParsedMethod> methods) {
+        ParsedClass(String[] editClassTarget, String[] subclassesOf, Condition[] conditions,
+                    List<ParsedMethod> methods) {
             this.editClassTarget = editClassTarget;
+            this.subclassesOf = subclassesOf;
+            this.conditions = conditions;
             this.methods = methods;
         }
     }
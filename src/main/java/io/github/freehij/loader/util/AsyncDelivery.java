@@ -0,0 +1,93 @@
+package io.github.freehij.loader.util;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runtime side of {@code @Inject(async = true)}. Injected sites {@link #submit} their helper into a bounded
+ * {@link MpscRingBuffer} and return right away, a single daemon thread drains it in batches and calls the handlers.
+ * Handlers of one site see their calls in order.
+ * <p>
+ * A queued call keeps its instance, arguments and locals reachable until the handler ran. The arguments and locals
+ * are the values at the call, but the instance is the live object: by the time the handler reads it through
+ * {@link InjectionHelper#getSelf()} or {@link InjectionHelper#getReflector()} the game may have changed it, so async
+ * handlers must not rely on its state. Calls to a handler that can't be resolved are dropped and counted.
+ */
+public class AsyncDelivery {
+    static final int DROP = 0, BLOCK = 1;
+    static final MpscRingBuffer<Entry> queue =
+            new MpscRingBuffer<>(Integer.getInteger("loader.async.capacity", 65536), Entry::new);
+    static final SiteRegistry<DeferredHandler> sites = new SiteRegistry<>(DeferredHandler::new);
+
+    static {
+        Thread drainer = new Thread(AsyncDelivery::drainLoop, "Loader async delivery");
+        drainer.setDaemon(true);
+        drainer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(AsyncDelivery::shutdown, "Loader async delivery flush"));
+    }
+
+    public static void submit(InjectionHelper helper, int id, String handlerClass, String handlerMethod,
+                              int backpressure) {
+        DeferredHandler site = sites.get(id, handlerClass + " -> " + handlerMethod);
+        if (!site.resolve(helper.type, handlerClass, handlerMethod)) {
+            site.dropped.increment();
+            return;
+        }
+        long sequence = queue.claim();
+        while (sequence < 0) {
+            if (backpressure == DROP) {
+                if (site.dropped.sum() == 0) {
+                    Logger.warn("Async delivery queue is full, dropping calls to " + site.name, "Loader");
+                }
+                site.dropped.increment();
+                return;
+            } else if (backpressure == BLOCK) {
+                LockSupport.parkNanos(50_000);
+                sequence = queue.claim();
+            } else {
+                site.deliver(helper);
+                return;
+            }
+        }
+        Entry entry = queue.get(sequence);
+        entry.site = site;
+        entry.helper = helper;
+        queue.publish(sequence);
+    }
+
+    static void drainLoop() {
+        long idle = 100_000;
+        while (true) {
+            if (drain() > 0) {
+                idle = 100_000;
+            } else {
+                LockSupport.parkNanos(idle);
+                idle = Math.min(idle * 2, 10_000_000);
+            }
+        }
+    }
+
+    static int drain() {
+        synchronized (queue) {
+            return queue.drain(entry -> {
+                DeferredHandler site = entry.site;
+                InjectionHelper helper = entry.helper;
+                entry.site = null;
+                entry.helper = null;
+                site.deliver(helper);
+            });
+        }
+    }
+
+    static void shutdown() {
+        drain();
+        for (DeferredHandler site : sites.all()) {
+            long dropped = site.dropped.sum();
+            if (dropped > 0) Logger.warn("Dropped " + dropped + " async calls to " + site.name, "Loader");
+        }
+    }
+
+    static class Entry {
+        DeferredHandler site;
+        InjectionHelper helper;
+    }
+}
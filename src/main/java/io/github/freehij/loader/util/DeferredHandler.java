@@ -0,0 +1,51 @@
+package io.github.freehij.loader.util;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A handler that is called later or on another thread than the injected site, resolved by name on first use.
+ */
+class DeferredHandler {
+    static final MethodType HANDLER = MethodType.methodType(void.class, InjectionHelper.class);
+    final String name;
+    final LongAdder dropped = new LongAdder();
+    volatile MethodHandle handle;
+    volatile boolean unresolvable;
+
+    DeferredHandler(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return whether the handler can be called, a failure is only reported the first time
+     */
+    boolean resolve(Class<?> target, String handlerClass, String handlerMethod) {
+        return handle != null || !unresolvable && resolveNow(target, handlerClass, handlerMethod);
+    }
+
+    // The caller is the injected site, a missing handler must not throw into the game.
+    synchronized boolean resolveNow(Class<?> target, String handlerClass, String handlerMethod) {
+        if (handle != null) return true;
+        if (unresolvable) return false;
+        try {
+            handle = HandlerLinker.resolve(handlerClass, handlerMethod, HANDLER, target.getClassLoader());
+            return true;
+        } catch (ReflectiveOperationException | RuntimeException | LinkageError e) {
+            unresolvable = true;
+            System.err.println("Failed to resolve handler " + name + ", dropping its calls");
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    void deliver(InjectionHelper helper) {
+        try {
+            handle.invokeExact(helper);
+        } catch (Throwable t) {
+            System.err.println("Deferred handler " + name + " failed");
+            t.printStackTrace();
+        }
+    }
+}
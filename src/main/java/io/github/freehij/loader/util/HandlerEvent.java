@@ -0,0 +1,15 @@
+package io.github.freehij.loader.util;
+
+import jdk.jfr.*;
+
+@Name("io.github.freehij.loader.Handler")
+@Label("Injection Handler")
+@Category({"Mod Loader"})
+@StackTrace(false)
+class HandlerEvent extends Event {
+    @Label("Handler")
+    String handler;
+
+    @Label("Cancelled")
+    boolean cancelled;
+}
@@ -0,0 +1,116 @@
+package io.github.freehij.loader.util;
+
+import java.lang.invoke.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Links handler calls from injected code. Without Fabric mods live in their own class loader that the targets can't
+ * see, so sites call handlers through invokedynamic: fixed handlers are bound once, handlers of hot reloadable mods
+ * ({@code -Dloader.hotReload=true}) and of injection classes registered after startup get one {@link MutableCallSite}
+ * per handler method. Reloading a mod points these at the new classes, targets whose injections did not change keep
+ * running without being retransformed.
+ */
+public class HandlerLinker {
+    // Handler class -> class loader of the mod it currently belongs to, for handlers that can be replaced.
+    static final Map<String, ClassLoader> owners = new ConcurrentHashMap<>();
+    static final Map<String, Link> links = new ConcurrentHashMap<>();
+    static volatile ClassLoader modLoader;
+
+    public static CallSite bootstrap(MethodHandles.Lookup lookup, String name, MethodType type, String handlerClass,
+                                     String handlerMethod) throws ReflectiveOperationException {
+        if (owners.containsKey(handlerClass)) return link(handlerClass, handlerMethod, type).site;
+        return new ConstantCallSite(MethodHandles.publicLookup().findStatic(
+                find(handlerClass, lookup.lookupClass().getClassLoader()), handlerMethod, type));
+    }
+
+    /**
+     * @return a handle that always calls the current version of the handler
+     */
+    static MethodHandle resolve(String handlerClass, String handlerMethod, MethodType type, ClassLoader target)
+            throws ReflectiveOperationException {
+        if (owners.containsKey(handlerClass)) return link(handlerClass, handlerMethod, type).site.dynamicInvoker();
+        return MethodHandles.publicLookup().findStatic(find(handlerClass, target), handlerMethod, type);
+    }
+
+    // A fixed handler is in the mod class loader, or where the target can see it when mods are loaded by the game
+    // itself (Fabric, the bundled dedicated server, a copy of the loader in another class loader).
+    static Class<?> find(String handlerClass, ClassLoader target) throws ClassNotFoundException {
+        String name = handlerClass.replace('/', '.');
+        ClassLoader mods = modLoader;
+        if (mods != null) {
+            try {
+                return Class.forName(name, true, mods);
+            } catch (ClassNotFoundException ignored) {
+            }
+        }
+        return Class.forName(name, true, target);
+    }
+
+    public static void setModLoader(ClassLoader loader) {
+        modLoader = loader;
+    }
+
+    static Link link(String handlerClass, String handlerMethod, MethodType type) {
+        return links.computeIfAbsent(handlerClass + '.' + handlerMethod + type.toMethodDescriptorString(),
+                k -> new Link(handlerClass, handlerMethod, type));
+    }
+
+    public static void setOwner(String handlerClass, ClassLoader loader) {
+        if (loader == null) {
+            owners.remove(handlerClass);
+        } else {
+            owners.put(handlerClass, loader);
+        }
+    }
+
+    /**
+     * Points every linked handler of the given classes at their current owners, for example after a reload.
+     */
+    public static void relink(List<String> handlerClasses) {
+        List<MutableCallSite> changed = new ArrayList<>();
+        for (Link link : links.values()) {
+            if (handlerClasses.contains(link.handlerClass)) {
+                link.update();
+                changed.add(link.site);
+            }
+        }
+        if (!changed.isEmpty()) MutableCallSite.syncAll(changed.toArray(new MutableCallSite[0]));
+    }
+
+    static class Link {
+        final String handlerClass, handlerMethod;
+        final MutableCallSite site;
+
+        Link(String handlerClass, String handlerMethod, MethodType type) {
+            this.handlerClass = handlerClass;
+            this.handlerMethod = handlerMethod;
+            site = new MutableCallSite(type);
+            update();
+        }
+
+        void update() {
+            MethodType type = site.type();
+            ClassLoader loader = owners.get(handlerClass);
+            if (loader != null) {
+                try {
+                    Class<?> owner = Class.forName(handlerClass.replace('/', '.'), true, loader);
+                    site.setTarget(MethodHandles.publicLookup().findStatic(owner, handlerMethod, type));
+                    return;
+                } catch (ReflectiveOperationException e) {
+                    Logger.warn("Handler " + handlerClass + " -> " + handlerMethod + " is gone: " + e, "Loader");
+                }
+            }
+            // An unloaded handler may still be called until its targets are retransformed.
+            if (type.returnType() == void.class) {
+                site.setTarget(MethodHandles.empty(type));
+            } else {
+                MethodHandle thrower = MethodHandles.throwException(type.returnType(), IllegalStateException.class)
+                        .bindTo(new IllegalStateException(handlerClass + " -> " + handlerMethod + " was unloaded"));
+                site.setTarget(MethodHandles.dropArguments(thrower, 0, type.parameterList()));
+            }
+        }
+    }
+}
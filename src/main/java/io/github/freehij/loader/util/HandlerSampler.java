@@ -0,0 +1,33 @@
+package io.github.freehij.loader.util;
+
+import jdk.jfr.FlightRecorder;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Records one in n handler calls, picked at random, as a JFR event, generated into injected sites with
+ * -Dloader.jfr.handlers=&lt;n&gt;. Until a recorder is running the sampled calls only check
+ * {@link FlightRecorder#isInitialized()}, the event class is not even loaded.
+ */
+public class HandlerSampler {
+    public static final int SAMPLE_RATE = Integer.getInteger("loader.jfr.handlers", 0);
+
+    // The random state lives in the calling thread, a shared counter would be written by every thread on every call.
+    public static Object enter() {
+        if (ThreadLocalRandom.current().nextInt(SAMPLE_RATE) != 0 || !FlightRecorder.isInitialized()) return null;
+        HandlerEvent event = new HandlerEvent();
+        if (!event.isEnabled()) return null;
+        event.begin();
+        return event;
+    }
+
+    public static void exit(Object sample, int id, String name, InjectionHelper helper) {
+        if (sample == null) return;
+        HandlerEvent event = (HandlerEvent) sample;
+        event.end();
+        if (!event.shouldCommit()) return;
+        event.handler = name;
+        event.cancelled = helper.cancelled;
+        event.commit();
+    }
+}
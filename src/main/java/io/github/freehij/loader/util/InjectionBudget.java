@@ -0,0 +1,62 @@
+package io.github.freehij.loader.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runtime side of {@code @Inject(budgetMicros = ...)}. Sites ask {@link #shouldRun} before building the helper and
+ * report the handler's time through {@link #exit}. Every {@link #WINDOW} calls a site is judged: over budget in more
+ * than half of them degrades it, a degraded sampled site that stayed within budget in nine of ten calls is restored.
+ */
+public class InjectionBudget {
+    static final int WINDOW = 100;
+    static final int SAMPLE_EVERY = Integer.getInteger("loader.budget.sampleEvery", 10);
+    static final int NORMAL = 0, SAMPLED = 1, DISABLED = 2;
+    static final SiteRegistry<Site> sites = new SiteRegistry<>(Site::new);
+
+    public static boolean shouldRun(int id, String name) {
+        Site site = sites.get(id, name);
+        switch (site.mode) {
+            case NORMAL: return true;
+            // Racy on purpose, a lost update only shifts which call runs.
+            case SAMPLED: return ++site.skipped % SAMPLE_EVERY == 0;
+            default: return false;
+        }
+    }
+
+    public static long enter() {
+        return System.nanoTime();
+    }
+
+    public static void exit(long start, int id, String name, long budgetNanos, boolean disable) {
+        long time = System.nanoTime() - start;
+        Site site = sites.get(id, name);
+        if (time > budgetNanos) site.over.incrementAndGet();
+        if (site.calls.incrementAndGet() < WINDOW) return;
+        synchronized (site) {
+            if (site.calls.get() < WINDOW) return;
+            int over = site.over.getAndSet(0);
+            site.calls.set(0);
+            if (site.mode == NORMAL && over * 2 > WINDOW) {
+                site.mode = disable ? DISABLED : SAMPLED;
+                Logger.warn(name + " went over its " + budgetNanos / 1000 + " us budget in " + over + " of its last " +
+                        WINDOW + " calls, " + (disable ? "disabling it" :
+                        "only calling it once every " + SAMPLE_EVERY + " calls from now on"), "Loader");
+            } else if (site.mode == SAMPLED && over * 10 < WINDOW) {
+                site.mode = NORMAL;
+                Logger.info(name + " is within its budget again, calling it every time", "Loader");
+            }
+        }
+    }
+
+    static class Site {
+        final String name;
+        final AtomicInteger calls = new AtomicInteger();
+        final AtomicInteger over = new AtomicInteger();
+        volatile int mode = NORMAL;
+        int skipped;
+
+        Site(String name) {
+            this.name = name;
+        }
+    }
+}
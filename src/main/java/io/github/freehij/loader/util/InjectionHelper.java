@@ -7,6 +7,9 @@ public class InjectionHelper {
     boolean cancelled = false;
     Object returnValue;
     Object[] optional;
+    long allocationMark;
+    // Set by the submitting thread before the helper is handed to the owning thread, see AffinityDispatch.
+    boolean queued;
 
     public InjectionHelper(Object instance, Class<?> type, Object[] args, Object[] locals, Object[] optional) {
         this.instance = instance;
@@ -0,0 +1,172 @@
+package io.github.freehij.loader.util;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-injection call counts, cancellations and latency, enabled with -Dloader.metrics=true.
+ * <p>
+ * Injected sites call {@link #enter()} before building the helper and {@link #exit} once the handler returned.
+ * The numbers are published as the {@code io.github.freehij.loader:type=InjectionMetrics} MBean and logged every
+ * {@code loader.metrics.interval} seconds (60 by default, 0 to only log on shutdown).
+ */
+public class InjectionMetrics implements InjectionMetricsMXBean {
+    public static final boolean ENABLED = Boolean.getBoolean("loader.metrics");
+    static final long INTERVAL = Long.getLong("loader.metrics.interval", 60);
+    // Bucket i counts calls that took [2^i, 2^(i+1)) nanoseconds, the last one everything above.
+    static final int BUCKETS = 40;
+    static final SiteRegistry<Site> sites = new SiteRegistry<>(Site::new);
+
+    static {
+        if (ENABLED) start();
+    }
+
+    public static long enter() {
+        return System.nanoTime();
+    }
+
+    public static void exit(long start, int id, String name, InjectionHelper helper) {
+        long nanos = System.nanoTime() - start;
+        Site site = sites.get(id, name);
+        site.calls.increment();
+        site.nanos.add(nanos);
+        if (helper.cancelled) site.cancels.increment();
+        site.buckets.incrementAndGet(Math.min(BUCKETS - 1, 63 - Long.numberOfLeadingZeros(Math.max(nanos, 1))));
+    }
+
+    static void start() {
+        try {
+            ObjectName name = new ObjectName("io.github.freehij.loader:type=InjectionMetrics");
+            if (ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+                name = new ObjectName(name + ",loader=" +
+                        Integer.toHexString(System.identityHashCode(InjectionMetrics.class.getClassLoader())));
+            }
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new InjectionMetrics(), name);
+        } catch (Exception e) {
+            System.err.println("Failed to register injection metrics MBean");
+            e.printStackTrace();
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> report(10)));
+        if (INTERVAL <= 0) return;
+        Thread reporter = new Thread(() -> {
+            try {
+                while (true) {
+                    Thread.sleep(INTERVAL * 1000);
+                    report(10);
+                }
+            } catch (InterruptedException ignored) {
+            }
+        }, "Loader metrics");
+        reporter.setDaemon(true);
+        reporter.start();
+    }
+
+    static void report(int limit) {
+        List<SiteStats> stats = snapshot();
+        if (stats.isEmpty()) return;
+        stats.sort(Comparator.comparingLong(SiteStats::getTotalNanos).reversed());
+        Logger.info("Injection time by handler (top " + Math.min(limit, stats.size()) + " of " + stats.size() + "):",
+                "Metrics");
+        for (SiteStats site : stats.subList(0, Math.min(limit, stats.size()))) {
+            Logger.info("	- " + site.getSite() + ": " + site.getCalls() + " calls, " + site.getCancels() +
+                    " cancelled, " + site.getTotalNanos() / 1_000_000 + " ms total, p50 < " + site.getP50Nanos() +
+                    " ns, p99 < " + site.getP99Nanos() + " ns", "Metrics");
+        }
+    }
+
+    static List<SiteStats> snapshot() {
+        List<SiteStats> stats = new ArrayList<>();
+        for (Site site : sites.all()) {
+            if (site.calls.sum() > 0) stats.add(site.stats());
+        }
+        return stats;
+    }
+
+    @Override
+    public List<SiteStats> getSites() {
+        return snapshot();
+    }
+
+    @Override
+    public void reset() {
+        for (Site site : sites.all()) {
+            site.calls.reset();
+            site.cancels.reset();
+            site.nanos.reset();
+            for (int i = 0; i < BUCKETS; i++) site.buckets.set(i, 0);
+        }
+    }
+
+    static class Site {
+        final String name;
+        final LongAdder calls = new LongAdder();
+        final LongAdder cancels = new LongAdder();
+        final LongAdder nanos = new LongAdder();
+        final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+        Site(String name) {
+            this.name = name;
+        }
+
+        SiteStats stats() {
+            long[] counts = new long[BUCKETS];
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) total += counts[i] = buckets.get(i);
+            return new SiteStats(name, calls.sum(), cancels.sum(), nanos.sum(), percentile(counts, total, 0.5),
+                    percentile(counts, total, 0.99));
+        }
+
+        // Upper bound of the bucket holding the given fraction of calls.
+        static long percentile(long[] counts, long total, double fraction) {
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= total * fraction) return 1L << (i + 1);
+            }
+            return Long.MAX_VALUE;
+        }
+    }
+
+    public static class SiteStats {
+        final String site;
+        final long calls, cancels, totalNanos, p50Nanos, p99Nanos;
+
+        public SiteStats(String site, long calls, long cancels, long totalNanos, long p50Nanos, long p99Nanos) {
+            this.site = site;
+            this.calls = calls;
+            this.cancels = cancels;
+            this.totalNanos = totalNanos;
+            this.p50Nanos = p50Nanos;
+            this.p99Nanos = p99Nanos;
+        }
+
+        public String getSite() {
+            return site;
+        }
+
+        public long getCalls() {
+            return calls;
+        }
+
+        public long getCancels() {
+            return cancels;
+        }
+
+        public long getTotalNanos() {
+            return totalNanos;
+        }
+
+        public long getP50Nanos() {
+            return p50Nanos;
+        }
+
+        public long getP99Nanos() {
+            return p99Nanos;
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package io.github.freehij.loader.util;
+
+import java.util.List;
+
+public interface InjectionMetricsMXBean {
+    List<InjectionMetrics.SiteStats> getSites();
+
+    void reset();
+}
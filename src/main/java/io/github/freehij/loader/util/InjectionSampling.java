@@ -0,0 +1,28 @@
+package io.github.freehij.loader.util;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Runtime side of {@code @Inject(sampleEvery = ...)} and {@code @Inject(sampleChance = ...)}, asked by the generated
+ * site before it captures anything.
+ */
+public class InjectionSampling {
+    // Per thread call counters by injection id, no contention and no shared cache lines between threads.
+    static final ThreadLocal<int[]> counters = ThreadLocal.withInitial(() -> new int[64]);
+
+    public static boolean every(int id, int n) {
+        int[] counts = counters.get();
+        if (id >= counts.length) {
+            counts = Arrays.copyOf(counts, Math.max(id + 1, counts.length * 2));
+            counters.set(counts);
+        }
+        if (++counts[id] < n) return false;
+        counts[id] = 0;
+        return true;
+    }
+
+    public static boolean chance(double p) {
+        return ThreadLocalRandom.current().nextDouble() < p;
+    }
+}
@@ -0,0 +1,152 @@
+package io.github.freehij.loader.util;
+
+import io.github.freehij.loader.Loader;
+
+import javax.management.ObjectName;
+import java.lang.invoke.CallSite;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Switches injections off and on at runtime without retransforming, exposed as {@link Loader#setInjectionEnabled},
+ * {@link Loader#setModEnabled} and the {@code io.github.freehij.loader:type=InjectionToggles} MBean.
+ * <p>
+ * Every injected site starts with an invokedynamic guard linked to the {@link MutableCallSite} of its injection, whose
+ * target is a constant. The JIT folds the guard away and deoptimizes the callers when the target changes. Class files
+ * too old for invokedynamic call {@link #isEnabled} instead.
+ * <p>
+ * The guards cost a call site per injection and a little more code in every target, so they are only added with
+ * {@code -Dloader.toggles=true}. Without it switching does nothing but warn.
+ */
+public class InjectionToggles implements InjectionTogglesMXBean {
+    static final boolean ENABLED = Boolean.getBoolean("loader.toggles");
+    static final SiteRegistry<Toggle> toggles = new SiteRegistry<>(Toggle::new);
+    // Injection names ("handler class -> method") and handler classes that are switched off.
+    static final Set<String> disabled = ConcurrentHashMap.newKeySet();
+
+    static {
+        // The platform MBean server takes a while to start, keep it out of class loading.
+        if (ENABLED) {
+            Thread register = new Thread(InjectionToggles::register, "Loader toggles");
+            register.setDaemon(true);
+            register.start();
+        }
+    }
+
+    public static CallSite bootstrap(MethodHandles.Lookup lookup, String name, MethodType type, int id,
+                                     String injection) {
+        return toggles.get(id, injection).site;
+    }
+
+    public static boolean isEnabled(int id, String injection) {
+        return toggles.get(id, injection).enabled;
+    }
+
+    /**
+     * @param injection either {@code handler class -> method} as the loader logs it, or a handler class to switch all
+     *                  of its injections
+     */
+    public static void set(String injection, boolean enabled) {
+        if (!ENABLED) {
+            Logger.warn("Can't switch " + injection + ", injection toggles need -Dloader.toggles=true", "Loader");
+            return;
+        }
+        synchronized (toggles) {
+            if (enabled) {
+                disabled.remove(injection);
+            } else {
+                disabled.add(injection);
+            }
+            List<MutableCallSite> changed = new ArrayList<>();
+            for (Toggle toggle : toggles.all()) {
+                if (toggle.update()) changed.add(toggle.site);
+            }
+            if (!changed.isEmpty()) MutableCallSite.syncAll(changed.toArray(new MutableCallSite[0]));
+        }
+        Logger.info((enabled ? "Enabled " : "Disabled ") + injection, "Loader");
+    }
+
+    public static void setMod(String modId, boolean enabled) {
+        for (Loader.ModInfo mod : Loader.getMods()) {
+            if (!modId.equals(mod.id())) continue;
+            for (String handlerClass : mod.injections()) {
+                if (!handlerClass.isEmpty()) set(handlerClass, enabled);
+            }
+            return;
+        }
+        throw new IllegalArgumentException("Unknown mod " + modId);
+    }
+
+    static void register() {
+        try {
+            ObjectName name = new ObjectName("io.github.freehij.loader:type=InjectionToggles");
+            if (ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+                name = new ObjectName(name + ",loader=" +
+                        Integer.toHexString(System.identityHashCode(InjectionToggles.class.getClassLoader())));
+            }
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new InjectionToggles(), name);
+        } catch (Exception e) {
+            System.err.println("Failed to register injection toggles MBean");
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public List<String> getInjections() {
+        List<String> names = new ArrayList<>();
+        for (Toggle toggle : toggles.all()) names.add(toggle.name);
+        return names;
+    }
+
+    @Override
+    public List<String> getDisabled() {
+        List<String> names = new ArrayList<>();
+        for (Toggle toggle : toggles.all()) {
+            if (!toggle.enabled) names.add(toggle.name);
+        }
+        return names;
+    }
+
+    @Override
+    public void setInjectionEnabled(String injection, boolean enabled) {
+        set(injection, enabled);
+    }
+
+    @Override
+    public void setModEnabled(String modId, boolean enabled) {
+        setMod(modId, enabled);
+    }
+
+    static class Toggle {
+        final String name, handlerClass;
+        final MutableCallSite site = new MutableCallSite(MethodType.methodType(boolean.class));
+        volatile boolean enabled;
+
+        // Created holding the lock on the registry, so this can't miss a concurrent set().
+        Toggle(String name) {
+            this.name = name;
+            int arrow = name.indexOf(" -> ");
+            handlerClass = arrow < 0 ? name : name.substring(0, arrow);
+            enabled = state();
+            site.setTarget(MethodHandles.constant(boolean.class, enabled));
+        }
+
+        boolean state() {
+            return !disabled.contains(name) && !disabled.contains(handlerClass);
+        }
+
+        boolean update() {
+            boolean now = state();
+            if (now == enabled) return false;
+            enabled = now;
+            site.setTarget(MethodHandles.constant(boolean.class, now));
+            return true;
+        }
+    }
+}
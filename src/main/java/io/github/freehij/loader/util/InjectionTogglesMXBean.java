@@ -0,0 +1,13 @@
+package io.github.freehij.loader.util;
+
+import java.util.List;
+
+public interface InjectionTogglesMXBean {
+    List<String> getInjections();
+
+    List<String> getDisabled();
+
+    void setInjectionEnabled(String injection, boolean enabled);
+
+    void setModEnabled(String modId, boolean enabled);
+}
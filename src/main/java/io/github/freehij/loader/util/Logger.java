@@ -1,21 +1,117 @@
 package io.github.freehij.loader.util;
 
-import java.io.FileDescriptor;
-import java.io.FileOutputStream;
-import java.io.PrintStream;
+import java.io.*;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
 
+/**
+ * Lines are handed to a background writer through a {@link MpscRingBuffer}, so logging never waits on stdout. The
+ * calling thread only fills a preallocated slot, the timestamp and the line are built by the writer. When the buffer
+ * is full the caller writes out the queued lines and then its own rather than dropping it.
+ * <p>
+ * Properties: {@code loader.logLevel} (DEBUG, INFO, WARN, ERROR or OFF; {@code loader.DEBUG=true} still means DEBUG),
+ * {@code loader.log.async=false} to write synchronously, {@code loader.log.file} to also write to a file that is
+ * rotated after {@code loader.log.maxSize} bytes (10 MiB) keeping {@code loader.log.files} old files (5).
+ */
 public class Logger {
-    static final boolean DEBUG = System.getProperty("loader.DEBUG", "").equalsIgnoreCase("true");
+    public enum Level {
+        DEBUG,
+        INFO,
+        WARN,
+        ERROR,
+        OFF
+    }
+
+    static final Level LEVEL = level(System.getProperty("loader.logLevel",
+            System.getProperty("loader.DEBUG", "").equalsIgnoreCase("true") ? "DEBUG" : "INFO"));
+    static final boolean DEBUG = LEVEL == Level.DEBUG;
+    static final boolean ASYNC = !System.getProperty("loader.log.async", "").equalsIgnoreCase("false");
     public static SimpleDateFormat dateFormat = new SimpleDateFormat("HH:mm:ss");
     public static final PrintStream STDOUT = new PrintStream(
             new FileOutputStream(FileDescriptor.out), true, StandardCharsets.UTF_8
     );
+    static final Writer out = new BufferedWriter(new OutputStreamWriter(
+            new FileOutputStream(FileDescriptor.out), StandardCharsets.UTF_8), 1 << 14);
+    static final LogFile file = System.getProperty("loader.log.file") == null ? null :
+            new LogFile(Paths.get(System.getProperty("loader.log.file")),
+                    Long.getLong("loader.log.maxSize", 10 << 20), Integer.getInteger("loader.log.files", 5));
+    static final MpscRingBuffer<Entry> buffer = ASYNC ? new MpscRingBuffer<>(4096, Entry::new) : null;
+    static volatile boolean closing;
+    static long cachedSecond = -1;
+    static String cachedTime;
+
+    static {
+        if (ASYNC) {
+            Thread writer = new Thread(Logger::writeLoop, "Loader log writer");
+            writer.setDaemon(true);
+            writer.start();
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            closing = true;
+            flush();
+        }, "Loader log flush"));
+    }
+
+    static Level level(String name) {
+        try {
+            return Level.valueOf(name.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.err.println("Unknown log level " + name + ", using INFO");
+            return Level.INFO;
+        }
+    }
+
+    public static boolean isEnabled(Level level) {
+        return level.compareTo(LEVEL) >= 0 && level != Level.OFF;
+    }
+
+    public static boolean isDebug() {
+        return DEBUG;
+    }
+
+    public static void log(Level level, String message, Object src) {
+        if (!isEnabled(level)) return;
+        String source = String.valueOf(src);
+        message = String.valueOf(message);
+        long time = System.currentTimeMillis();
+        long sequence = ASYNC ? buffer.claim() : -1;
+        if (sequence < 0) {
+            synchronized (out) {
+                // Queued lines go first, the line would jump ahead of them otherwise.
+                if (ASYNC) buffer.drain(Logger::write);
+                write(time, level, source, message);
+                flushOutput();
+            }
+            return;
+        }
+        Entry entry = buffer.get(sequence);
+        entry.time = time;
+        entry.level = level;
+        entry.source = source;
+        entry.message = message;
+        buffer.publish(sequence);
+        // Other shutdown hooks run concurrently with ours and the writer is a daemon thread, flush them ourselves.
+        if (closing) flush();
+    }
+
+    public static void log(Level level, Supplier<String> message, Object src) {
+        if (isEnabled(level)) log(level, message.get(), src);
+    }
 
     public static void info(String message, Object src) {
-        STDOUT.println("[" + dateFormat.format(new Date()) + "] [" + src + "] " + message);
+        log(Level.INFO, message, src);
+    }
+
+    public static void info(Supplier<String> message, Object src) {
+        log(Level.INFO, message, src);
     }
 
     public static void info(String message) {
@@ -23,10 +119,137 @@ public class Logger {
     }
 
     public static void debug(String message, Object src) {
-        if (DEBUG) STDOUT.println("[" + dateFormat.format(new Date()) + "] [" + src + "] " + message);
+        if (DEBUG) log(Level.DEBUG, message, src);
+    }
+
+    public static void debug(Supplier<String> message, Object src) {
+        if (DEBUG) log(Level.DEBUG, message, src);
     }
 
     public static void debug(String message) {
         debug(message, "Unknown");
     }
+
+    public static void warn(String message, Object src) {
+        log(Level.WARN, message, src);
+    }
+
+    public static void warn(Supplier<String> message, Object src) {
+        log(Level.WARN, message, src);
+    }
+
+    public static void error(String message, Object src) {
+        log(Level.ERROR, message, src);
+    }
+
+    public static void error(Supplier<String> message, Object src) {
+        log(Level.ERROR, message, src);
+    }
+
+    /**
+     * Writes out everything logged so far, for example before printing to {@link #STDOUT} directly.
+     */
+    public static void flush() {
+        synchronized (out) {
+            if (ASYNC) buffer.drain(Logger::write);
+            flushOutput();
+        }
+    }
+
+    static void writeLoop() {
+        while (true) {
+            int written;
+            synchronized (out) {
+                written = buffer.drain(Logger::write);
+                if (written > 0) flushOutput();
+            }
+            if (written == 0) LockSupport.parkNanos(10_000_000);
+        }
+    }
+
+    static void write(Entry entry) {
+        write(entry.time, entry.level, entry.source, entry.message);
+        entry.source = null;
+        entry.message = null;
+    }
+
+    // Always called holding the lock on out.
+    static void write(long time, Level level, String source, String message) {
+        if (time / 1000 != cachedSecond) {
+            cachedSecond = time / 1000;
+            cachedTime = dateFormat.format(new Date(time));
+        }
+        StringBuilder line = new StringBuilder(cachedTime.length() + source.length() + message.length() + 16);
+        line.append('[').append(cachedTime).append("] [").append(source).append("] ");
+        if (level == Level.WARN || level == Level.ERROR) line.append(level).append(": ");
+        line.append(message).append(System.lineSeparator());
+        try {
+            out.write(line.toString());
+            if (file != null) file.write(line.toString());
+        } catch (IOException ignored) {
+        }
+    }
+
+    static void flushOutput() {
+        try {
+            out.flush();
+            if (file != null) file.flush();
+        } catch (IOException ignored) {
+        }
+    }
+
+    static class Entry {
+        long time;
+        Level level;
+        String source, message;
+    }
+
+    static class LogFile {
+        final Path path;
+        final long maxSize;
+        final int files;
+        Writer writer;
+        long size;
+
+        LogFile(Path path, long maxSize, int files) {
+            this.path = path;
+            this.maxSize = maxSize;
+            this.files = files;
+        }
+
+        void write(String line) throws IOException {
+            if (writer == null) open();
+            if (size > 0 && size + line.length() > maxSize) {
+                writer.close();
+                rotate();
+                open();
+            }
+            writer.write(line);
+            size += line.length();
+        }
+
+        void flush() throws IOException {
+            if (writer != null) writer.flush();
+        }
+
+        void open() throws IOException {
+            Path parent = path.toAbsolutePath().getParent();
+            if (parent != null) Files.createDirectories(parent);
+            size = Files.exists(path) ? Files.size(path) : 0;
+            writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+
+        // latest.log -> latest.log.1 -> ... -> latest.log.<files>, the oldest one is dropped.
+        void rotate() throws IOException {
+            for (int i = files; i > 0; i--) {
+                Path from = i == 1 ? path : path.resolveSibling(path.getFileName() + "." + (i - 1));
+                if (Files.exists(from)) {
+                    Files.move(from, path.resolveSibling(path.getFileName() + "." + i),
+                            StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            if (files <= 0) Files.deleteIfExists(path);
+        }
+    }
 }
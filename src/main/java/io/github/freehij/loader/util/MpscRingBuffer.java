@@ -0,0 +1,77 @@
+package io.github.freehij.loader.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Bounded lock-free queue for many producers and a single consumer, with preallocated slots that are reused instead
+ * of allocating an element per offer.
+ * <p>
+ * A producer {@link #claim()}s a sequence, fills {@link #get(long)} in place and {@link #publish(long)}es it, the
+ * consumer sees published slots in order through {@link #drain(Consumer)}. Every slot carries the sequence it is
+ * ready for, so producers only contend on the tail counter (D. Vyukov's bounded queue).
+ */
+public class MpscRingBuffer<E> {
+    final E[] slots;
+    final AtomicLongArray sequences;
+    final AtomicLong tail = new AtomicLong();
+    final int mask;
+    long head;
+
+    @SuppressWarnings("unchecked")
+    public MpscRingBuffer(int capacity, Supplier<E> factory) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        slots = (E[]) new Object[size];
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            slots[i] = factory.get();
+            sequences.set(i, i);
+        }
+        mask = size - 1;
+    }
+
+    /**
+     * @return the claimed sequence, or -1 if the buffer is full
+     */
+    public long claim() {
+        while (true) {
+            long position = tail.get();
+            long difference = sequences.get((int) position & mask) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) return position;
+            } else if (difference < 0) {
+                return -1;
+            }
+        }
+    }
+
+    public E get(long sequence) {
+        return slots[(int) sequence & mask];
+    }
+
+    public void publish(long sequence) {
+        sequences.lazySet((int) sequence & mask, sequence + 1);
+    }
+
+    /**
+     * Hands every published slot to the consumer and frees it again. Only one thread may drain.
+     *
+     * @return the number of slots consumed
+     */
+    public int drain(Consumer<E> consumer) {
+        int drained = 0;
+        while (sequences.get((int) head & mask) == head + 1) {
+            consumer.accept(slots[(int) head & mask]);
+            sequences.lazySet((int) head & mask, head + slots.length);
+            head++;
+            drained++;
+        }
+        return drained;
+    }
+
+    public int capacity() {
+        return slots.length;
+    }
+}
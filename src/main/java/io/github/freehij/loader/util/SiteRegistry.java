@@ -0,0 +1,43 @@
+package io.github.freehij.loader.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Per-injection state indexed by injection id, for the runtime side of generated probes.
+ * <p>
+ * Ids come from the registry of the loader copy that transformed the class, a copy loaded by another class loader
+ * (knot) only learns about a site once it runs, hence the name passed next to the id.
+ */
+class SiteRegistry<T> {
+    final Function<String, T> factory;
+    volatile Object[] sites = new Object[64];
+
+    SiteRegistry(Function<String, T> factory) {
+        this.factory = factory;
+    }
+
+    @SuppressWarnings("unchecked")
+    T get(int id, String name) {
+        Object[] current = sites;
+        if (id < current.length && current[id] != null) return (T) current[id];
+        synchronized (this) {
+            current = sites;
+            if (id >= current.length) current = Arrays.copyOf(current, Math.max(id + 1, current.length * 2));
+            if (current[id] == null) current[id] = factory.apply(name);
+            sites = current;
+            return (T) current[id];
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    List<T> all() {
+        List<T> all = new ArrayList<>();
+        for (Object site : sites) {
+            if (site != null) all.add((T) site);
+        }
+        return all;
+    }
+}
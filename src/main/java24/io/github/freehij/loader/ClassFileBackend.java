@@ -0,0 +1,377 @@
+package io.github.freehij.loader;
+
+import io.github.freehij.loader.Loader.InjectionPoint;
+import io.github.freehij.loader.annotation.AdvancedAt;
+import io.github.freehij.loader.annotation.Local;
+import io.github.freehij.loader.constant.ArgMode;
+import io.github.freehij.loader.constant.At;
+import io.github.freehij.loader.constant.Shift;
+import io.github.freehij.loader.constant.ThreadAffinity;
+import io.github.freehij.loader.util.Logger;
+
+import java.lang.classfile.*;
+import java.lang.classfile.ClassHierarchyResolver.ClassHierarchyInfo;
+import java.lang.classfile.instruction.*;
+import java.lang.constant.*;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.lang.constant.ConstantDescs.*;
+
+/**
+ * Transform backend on the {@code java.lang.classfile} API of JDK 24, selected with
+ * {@code -Dloader.backend=classfile}. Ships in the versioned part of the loader jar, so older JDKs never see it.
+ * <p>
+ * Handles helper calls at the head, before returns and around invokes, field and local accesses. Classes with any
+ * other injection (tail, redirects, constants, inlined or outlined handlers, budgets, sampling, probes like metrics)
+ * or with toggles switched on are transformed by {@link AsmBackend}.
+ */
+@SuppressWarnings("deprecation")
+class ClassFileBackend implements TransformBackend {
+    static final ClassDesc HELPER = ClassDesc.of("io.github.freehij.loader.util.InjectionHelper"),
+            AFFINITY = ClassDesc.of("io.github.freehij.loader.util.AffinityDispatch"),
+            ASYNC = ClassDesc.of("io.github.freehij.loader.util.AsyncDelivery");
+    static final MethodTypeDesc HANDLER_TYPE = MethodTypeDesc.of(CD_void, HELPER),
+            SUBMIT_TYPE = MethodTypeDesc.of(CD_void, HELPER, CD_int, CD_String, CD_String, CD_int);
+    static final DirectMethodHandleDesc HANDLER_BOOTSTRAP = ofCallsiteBootstrap(
+            ClassDesc.of("io.github.freehij.loader.util.HandlerLinker"), "bootstrap", CD_CallSite, CD_String,
+            CD_String);
+
+    final AsmBackend fallback = new AsmBackend();
+
+    @Override
+    public String name() {
+        return "classfile";
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return Runtime.version().feature() >= 24;
+    }
+
+    @Override
+    public byte[] transform(String className, byte[] buffer, ClassLoader frameLoader) {
+        List<InjectionPoint> points = Loader.injectionPoints.get(className);
+        if (points == null || AsmBackend.TOGGLES || !points.stream().allMatch(ClassFileBackend::supported)) {
+            return fallback.transform(className, buffer, frameLoader);
+        }
+        ClassFile classFile = ClassFile.of(ClassFile.ClassHierarchyResolverOption.of(resolver(frameLoader)));
+        ClassModel model = classFile.parse(buffer);
+        // Linked handlers are called through invokedynamic, raising the version would take frames for every method.
+        if (model.majorVersion() < ClassFile.JAVA_7_VERSION && points.stream().anyMatch(p -> p.linked)) {
+            return fallback.transform(className, buffer, frameLoader);
+        }
+        byte[] result;
+        try {
+            result = classFile.transformClass(model, (builder, element) -> {
+                if (!(element instanceof MethodModel method)) {
+                    builder.with(element);
+                    return;
+                }
+                String name = method.methodName().stringValue(), desc = method.methodType().stringValue();
+                List<InjectionPoint> matched = new ArrayList<>();
+                for (InjectionPoint point : points) {
+                    if (point.methods.contains(name) && (point.descriptor.isEmpty() || point.descriptor.equals(desc))) {
+                        if (Logger.isDebug()) {
+                            Logger.debug("Transforming " + name + desc +
+                                    ", handler: " + point.handlerClass + "." + point.handlerMethod, this);
+                        }
+                        point.satisfied = true;
+                        matched.add(point);
+                    }
+                }
+                if (matched.isEmpty() || method.code().isEmpty()) {
+                    builder.with(element);
+                } else {
+                    builder.transformMethod(method, MethodTransform.transformingCode(new Injector(className,
+                            (method.flags().flagsMask() & ClassFile.ACC_STATIC) != 0, desc, matched)));
+                }
+            });
+        } catch (IllegalArgumentException e) {
+            // Stack maps the API can't generate, for example with a class the resolver doesn't know.
+            Logger.warn("Failed to transform " + className + " with the classfile backend (" + e.getMessage() +
+                    "), using asm", "Loader");
+            return fallback.transform(className, buffer, frameLoader);
+        }
+        for (InjectionPoint point : points) {
+            if (!point.satisfied) Loader.unsatisfied(point, className + " has no matching method");
+        }
+        return result;
+    }
+
+    static boolean supported(InjectionPoint point) {
+        if (point.at == At.TAIL || point.inline != null || AsmBackend.OUTLINE || point.inject.outline()) return false;
+        for (AdvancedAt adv : point.advancedAt) {
+            if (adv.at() == AdvancedAt.At.REDIRECT_INVOKE || adv.at() == AdvancedAt.At.MODIFY_CONSTANT) return false;
+        }
+        for (Probe probe : Probe.ACTIVE) {
+            if (probe.appliesTo(point)) return false;
+        }
+        return true;
+    }
+
+    // Asking the index doesn't load the classes, which in a transformer could load half the game.
+    static ClassHierarchyResolver resolver(ClassLoader frameLoader) {
+        ClassHierarchyResolver index = desc -> {
+            GameIndex gameIndex = GameIndex.index;
+            String name = desc.descriptorString();
+            GameIndex.ClassInfo info = gameIndex == null ? null :
+                    gameIndex.classes.get(name.substring(1, name.length() - 1));
+            if (info == null) return null;
+            if ((info.access() & Modifier.INTERFACE) != 0) return ClassHierarchyInfo.ofInterface();
+            return ClassHierarchyInfo.ofClass(info.superName() == null ? null :
+                    ClassDesc.ofInternalName(info.superName()));
+        };
+        ClassLoader loader = frameLoader != null ? frameLoader : ClassFileBackend.class.getClassLoader();
+        return index.orElse(ClassHierarchyResolver.ofResourceParsing(loader))
+                .orElse(ClassHierarchyResolver.defaultResolver());
+    }
+
+    /**
+     * Injects the helper calls of the points matching one method. Like the nested visitors of {@link AsmBackend},
+     * later points wrap earlier ones: their calls come first before an instruction and last after it.
+     */
+    static class Injector implements CodeTransform {
+        final String className;
+        final boolean isStatic;
+        final MethodTypeDesc type;
+        final List<InjectionPoint> points;
+        // Per point, how many instructions of each AdvancedAt.At were seen so far.
+        final int[][] counts;
+
+        Injector(String className, boolean isStatic, String desc, List<InjectionPoint> points) {
+            this.className = className;
+            this.isStatic = isStatic;
+            type = MethodTypeDesc.ofDescriptor(desc);
+            this.points = points;
+            counts = new int[points.size()][AdvancedAt.At.values().length];
+        }
+
+        @Override
+        public void atStart(CodeBuilder builder) {
+            for (InjectionPoint point : points) {
+                if (point.at == At.HEAD) helperCall(builder, point);
+            }
+        }
+
+        @Override
+        public void accept(CodeBuilder builder, CodeElement element) {
+            if (element instanceof ReturnInstruction) {
+                for (int i = points.size() - 1; i >= 0; i--) {
+                    if (points.get(i).at == At.RETURN) helperCall(builder, points.get(i));
+                }
+                builder.with(element);
+                return;
+            }
+            AdvancedAt.At kind;
+            String matched;
+            switch (element) {
+                case LoadInstruction load -> {
+                    kind = AdvancedAt.At.FETCH_LOCAL;
+                    matched = String.valueOf(load.slot());
+                }
+                case StoreInstruction store -> {
+                    kind = AdvancedAt.At.ASSIGN_LOCAL;
+                    matched = String.valueOf(store.slot());
+                }
+                case FieldInstruction field -> {
+                    kind = field.opcode() == Opcode.PUTFIELD || field.opcode() == Opcode.PUTSTATIC ?
+                            AdvancedAt.At.ASSIGN_FIELD : AdvancedAt.At.FETCH_FIELD;
+                    matched = field.name().stringValue();
+                }
+                case InvokeInstruction invoke -> {
+                    kind = AdvancedAt.At.INVOKE;
+                    matched = invoke.owner().asInternalName() + ";" + invoke.name().stringValue() +
+                            invoke.type().stringValue();
+                }
+                default -> {
+                    builder.with(element);
+                    return;
+                }
+            }
+            for (int i = points.size() - 1; i >= 0; i--) injectAt(builder, i, kind, matched, Shift.BEFORE);
+            builder.with(element);
+            for (int i = 0; i < points.size(); i++) injectAt(builder, i, kind, matched, Shift.AFTER);
+            for (int[] count : counts) count[kind.ordinal()]++;
+        }
+
+        void injectAt(CodeBuilder builder, int index, AdvancedAt.At kind, String matched, Shift shift) {
+            InjectionPoint point = points.get(index);
+            int count = counts[index][kind.ordinal()];
+            for (AdvancedAt adv : point.advancedAt) {
+                if (adv.at() != kind || adv.shift() != shift || adv.ordinal() != -1 && adv.ordinal() != count) continue;
+                if (matches(kind, adv.optional().trim(), matched)) helperCall(builder, point);
+            }
+        }
+
+        // Locals by slot, fields by name, invokes by "owner;name" or "owner;name(descriptor)".
+        static boolean matches(AdvancedAt.At kind, String optional, String matched) {
+            if (optional.isEmpty()) return true;
+            if (kind == AdvancedAt.At.FETCH_LOCAL || kind == AdvancedAt.At.ASSIGN_LOCAL) {
+                return Integer.parseInt(optional) == Integer.parseInt(matched);
+            }
+            if (kind != AdvancedAt.At.INVOKE || optional.split(";").length != 2) return optional.equals(matched);
+            return matched.startsWith(optional + "(");
+        }
+
+        // The same code as AsmBackend.generateHelperCall without inlining, outlining, toggles and probes.
+        void helperCall(CodeBuilder builder, InjectionPoint injection) {
+            List<ClassDesc> argTypes = type.parameterList();
+            boolean fetchArgs = !argTypes.isEmpty() &&
+                    (injection.inject.argMode() == ArgMode.FETCH || injection.inject.argMode() == ArgMode.FETCH_APPLY);
+            int[] argSlots = new int[argTypes.size()];
+            int slot = isStatic ? 0 : 1;
+            for (int i = 0; i < argSlots.length; i++) {
+                argSlots[i] = slot;
+                slot += TypeKind.from(argTypes.get(i)).slotSize();
+            }
+            Local[] locals = injection.inject.locals();
+            List<ClassDesc> localTypes = new ArrayList<>();
+            int[] localSlots = new int[locals.length];
+            for (int i = 0; i < locals.length; i++) {
+                localTypes.add(ClassDesc.ofDescriptor(locals[i].type()));
+                localSlots[i] = locals[i].index();
+            }
+
+            int helper = builder.allocateLocal(TypeKind.REFERENCE);
+            builder.new_(HELPER).dup();
+            if (isStatic) {
+                builder.aconst_null();
+            } else {
+                builder.aload(0);
+            }
+            builder.loadConstant(ClassDesc.ofInternalName(className));
+            if (fetchArgs) {
+                newArray(builder, argTypes, argSlots);
+            } else {
+                builder.aconst_null();
+            }
+            if (!localTypes.isEmpty()) {
+                newArray(builder, localTypes, localSlots);
+            } else {
+                builder.aconst_null();
+            }
+            builder.invokespecial(HELPER, INIT_NAME, MethodTypeDesc.of(CD_void, CD_Object, CD_Class,
+                            CD_Object.arrayType(), CD_Object.arrayType()))
+                    .astore(helper)
+                    .aload(helper);
+            if (injection.async) {
+                // Nothing to write back and the handler can't cancel a call it sees later.
+                builder.loadConstant(injection.id)
+                        .loadConstant(injection.handlerClass)
+                        .loadConstant(injection.handlerMethod)
+                        .loadConstant(injection.inject.backpressure().ordinal())
+                        .invokestatic(ASYNC, "submit", SUBMIT_TYPE);
+                return;
+            }
+            Label continueLabel = builder.newLabel();
+            if (injection.affinity != ThreadAffinity.ANY) {
+                invokeOnOwner(builder, injection);
+                // A queued helper belongs to the owning thread now, which may be running the handler on it.
+                builder.aload(helper)
+                        .invokestatic(AFFINITY, "wasQueued", MethodTypeDesc.of(CD_boolean, HELPER))
+                        .ifne(continueLabel);
+            } else {
+                invokeHandler(builder, injection);
+            }
+
+            if (!argTypes.isEmpty() && injection.inject.argMode() == ArgMode.FETCH_APPLY) {
+                writeBack(builder, helper, "getArgs", argTypes, argSlots);
+            }
+            if (injection.inject.modifyLocals() && !localTypes.isEmpty()) {
+                writeBack(builder, helper, "getLocals", localTypes, localSlots);
+            }
+
+            builder.aload(helper)
+                    .invokevirtual(HELPER, "isCancelled", MethodTypeDesc.of(CD_boolean))
+                    .ifeq(continueLabel);
+            ClassDesc returnType = type.returnType();
+            if (returnType.equals(CD_void)) {
+                builder.return_();
+            } else {
+                builder.aload(helper)
+                        .invokevirtual(HELPER, "getReturnValue", MethodTypeDesc.of(CD_Object));
+                unbox(builder, returnType);
+                builder.return_(TypeKind.from(returnType));
+            }
+            builder.labelBinding(continueLabel);
+        }
+
+        static void newArray(CodeBuilder builder, List<ClassDesc> types, int[] slots) {
+            builder.loadConstant(types.size()).anewarray(CD_Object);
+            for (int i = 0; i < types.size(); i++) {
+                builder.dup()
+                        .loadConstant(i)
+                        .loadLocal(TypeKind.from(types.get(i)), slots[i]);
+                box(builder, types.get(i));
+                builder.aastore();
+            }
+        }
+
+        static void writeBack(CodeBuilder builder, int helper, String getter, List<ClassDesc> types, int[] slots) {
+            builder.aload(helper).invokevirtual(HELPER, getter, MethodTypeDesc.of(CD_Object.arrayType()));
+            for (int i = 0; i < types.size(); i++) {
+                builder.dup().loadConstant(i).aaload();
+                unbox(builder, types.get(i));
+                builder.storeLocal(TypeKind.from(types.get(i)), slots[i]);
+            }
+            builder.pop();
+        }
+
+        static void invokeHandler(CodeBuilder builder, InjectionPoint injection) {
+            if (injection.linked) {
+                builder.invokedynamic(DynamicCallSiteDesc.of(HANDLER_BOOTSTRAP, injection.handlerMethod, HANDLER_TYPE,
+                        injection.handlerClass, injection.handlerMethod));
+            } else {
+                builder.invokestatic(ClassDesc.ofInternalName(injection.handlerClass), injection.handlerMethod,
+                        HANDLER_TYPE);
+            }
+        }
+
+        // Expects the helper on the stack, calls the handler right away on the owning thread and queues it otherwise.
+        static void invokeOnOwner(CodeBuilder builder, InjectionPoint injection) {
+            Label queue = builder.newLabel(), done = builder.newLabel();
+            int affinity = injection.affinity.ordinal();
+            builder.loadConstant(affinity)
+                    .invokestatic(AFFINITY, "isOwner", MethodTypeDesc.of(CD_boolean, CD_int))
+                    .ifeq(queue);
+            invokeHandler(builder, injection);
+            builder.goto_(done)
+                    .labelBinding(queue)
+                    .loadConstant(injection.id)
+                    .loadConstant(injection.handlerClass)
+                    .loadConstant(injection.handlerMethod)
+                    .loadConstant(affinity)
+                    .invokestatic(AFFINITY, "submit", SUBMIT_TYPE)
+                    .labelBinding(done);
+        }
+    }
+
+    static ClassDesc wrapper(ClassDesc primitive) {
+        return switch (primitive.descriptorString()) {
+            case "Z" -> CD_Boolean;
+            case "B" -> CD_Byte;
+            case "C" -> CD_Character;
+            case "S" -> CD_Short;
+            case "I" -> CD_Integer;
+            case "J" -> CD_Long;
+            case "F" -> CD_Float;
+            default -> CD_Double;
+        };
+    }
+
+    static void box(CodeBuilder builder, ClassDesc type) {
+        if (type.isPrimitive()) builder.invokestatic(wrapper(type), "valueOf", MethodTypeDesc.of(wrapper(type), type));
+    }
+
+    static void unbox(CodeBuilder builder, ClassDesc type) {
+        if (!type.isPrimitive()) {
+            builder.checkcast(type);
+            return;
+        }
+        ClassDesc wrapper = wrapper(type);
+        builder.checkcast(wrapper)
+                .invokevirtual(wrapper, type.displayName() + "Value", MethodTypeDesc.of(type));
+    }
+}
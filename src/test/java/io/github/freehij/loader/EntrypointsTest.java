@@ -0,0 +1,89 @@
+package io.github.freehij.loader;
+
+import io.github.freehij.loader.Loader.ModInfo;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EntrypointsTest {
+    static final AtomicInteger runs = new AtomicInteger();
+
+    public static class Initializer implements ModInitializer {
+        @Override
+        public void onInitialize() {
+            runs.incrementAndGet();
+        }
+    }
+
+    static ModInfo mod(String id, List<String> entrypoints, List<String> depends, Path jarPath) {
+        return new ModInfo(id, id, "1", "test", "", "", List.of(), entrypoints, depends, jarPath);
+    }
+
+    @AfterEach
+    void reset() {
+        Loader.hotReload = false;
+        Loader.mods.clear();
+        HotReload.loaders.clear();
+        runs.set(0);
+    }
+
+    @Test
+    void runsEntrypointsWithHotReload() {
+        Loader.hotReload = true;
+        Path jar = Paths.get("mods", "a.jar");
+        // The synthetic loader mod has no jar.
+        Loader.mods.add(mod("loader", List.of(), List.of(), null));
+        Loader.mods.add(mod("a", List.of(Initializer.class.getName()), List.of("loader"), jar));
+        HotReload.loaders.put(jar, EntrypointsTest.class.getClassLoader());
+
+        Loader.initializeMods(false, false);
+
+        assertEquals(1, runs.get());
+    }
+
+    @Test
+    void runsDependenciesFirst() {
+        Loader.mods.add(mod("b", List.of(Initializer.class.getName()), List.of("a"), Paths.get("b.jar")));
+        Loader.mods.add(mod("a", List.of(Initializer.class.getName()), List.of(), Paths.get("a.jar")));
+
+        List<ModInfo> order = Entrypoints.order(Loader.mods);
+
+        assertEquals(List.of("a", "b"), order.stream().map(ModInfo::id).toList());
+    }
+
+    @Test
+    void runsEntrypointsOfModsWithoutModid() {
+        Loader.mods.add(mod(null, List.of(Initializer.class.getName()), List.of(), Paths.get("a.jar")));
+        Loader.mods.add(mod(null, List.of(Initializer.class.getName()), List.of(), Paths.get("b.jar")));
+
+        Loader.initializeMods(false, false);
+
+        assertEquals(2, runs.get());
+    }
+
+    @Test
+    void rejectsDuplicateModids() {
+        Loader.mods.add(mod("a", List.of(Initializer.class.getName()), List.of(), Paths.get("a.jar")));
+        Loader.mods.add(mod("a", List.of(Initializer.class.getName()), List.of(), Paths.get("b.jar")));
+
+        assertThrows(IllegalStateException.class, () -> Loader.initializeMods(false, false));
+        assertEquals(0, runs.get());
+    }
+
+    @Test
+    void skipsEntrypointsWithoutOrderingOnFabric() {
+        Loader.mods.add(mod("a", List.of(Initializer.class.getName()), List.of("b"), Paths.get("a.jar")));
+        Loader.mods.add(mod("b", List.of(), List.of("a"), Paths.get("b.jar")));
+
+        assertThrows(IllegalStateException.class, () -> Entrypoints.order(Loader.mods));
+        assertDoesNotThrow(() -> Loader.initializeMods(true, false));
+        assertDoesNotThrow(() -> Loader.initializeMods(false, true));
+        assertEquals(0, runs.get());
+    }
+}
@@ -0,0 +1,63 @@
+package io.github.freehij.loader.util;
+
+import io.github.freehij.loader.annotation.*;
+import io.github.freehij.loader.constant.ArgMode;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AnnotationParserTest {
+    static final String HANDLERS = "io/github/freehij/loader/util/AnnotationParserTest$Handlers";
+
+    @EditClass("game/Target")
+    static class Handlers {
+        @Inject(method = "run", argMode = ArgMode.NONE, locals = @Local(index = 3, type = "I"),
+                advancedAt = @AdvancedAt(at = AdvancedAt.At.ASSIGN_FIELD, optional = "value"),
+                conditions = @Condition(property = "test.enabled", negate = true))
+        static void handler(InjectionHelper helper) {
+        }
+    }
+
+    static URLClassLoader loader() {
+        URL classes = AnnotationParserTest.class.getProtectionDomain().getCodeSource().getLocation();
+        return new URLClassLoader(new URL[]{classes}, AnnotationParserTest.class.getClassLoader());
+    }
+
+    // Every hot reload parses a mod in a new class loader, an unchanged injection has to stay equal.
+    @Test
+    void nestedAnnotationsFromDifferentLoadersAreEqual() throws IOException {
+        try (URLClassLoader first = loader(); URLClassLoader second = loader()) {
+            Inject a = AnnotationParser.parseClassForInjections(HANDLERS, first).methods.get(0).inject;
+            Inject b = AnnotationParser.parseClassForInjections(HANDLERS, second).methods.get(0).inject;
+
+            assertNotSame(a.advancedAt()[0].getClass(), b.advancedAt()[0].getClass());
+            assertEquals(a.advancedAt()[0], b.advancedAt()[0]);
+            assertEquals(a, b);
+            assertEquals(a.hashCode(), b.hashCode());
+        }
+    }
+
+    @Test
+    void changedNestedAnnotationsAreNotEqual() throws IOException {
+        try (URLClassLoader loader = loader()) {
+            Inject a = AnnotationParser.parseClassForInjections(HANDLERS, loader).methods.get(0).inject;
+            Inject b = AnnotationParser.parseClassForInjections("io/github/freehij/loader/util/" +
+                    "AnnotationParserTest$Changed", loader).methods.get(0).inject;
+
+            assertNotEquals(a, b);
+        }
+    }
+
+    @EditClass("game/Target")
+    static class Changed {
+        @Inject(method = "run", argMode = ArgMode.NONE, locals = @Local(index = 3, type = "I"),
+                advancedAt = @AdvancedAt(at = AdvancedAt.At.ASSIGN_FIELD, optional = "other"),
+                conditions = @Condition(property = "test.enabled", negate = true))
+        static void handler(InjectionHelper helper) {
+        }
+    }
+}